@@ -0,0 +1,60 @@
+package com.ganteater.ae.desktop.editor;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Processor documentation of the AI Code Helper request: the
+ * {@link ProcessorDocsCache} lookup done for every processor of the request
+ * and the class path scan of the warm-up. The documentation is rendered once
+ * per class path, so the renderer is a stub and the cache hit is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessorDocsBenchmark {
+
+	private final Function<String, String> renderer = processorName -> "# Command Processor: " + processorName;
+
+	private ProcessorDocsCache docs;
+	private Set<String> processorNames;
+
+	@Setup
+	public void setup() {
+		docs = new ProcessorDocsCache(ProcessorDocsBenchmark.class.getClassLoader());
+		processorNames = docs.findProcessorNames();
+		for (String processorName : processorNames) {
+			docs.get(processorName, renderer);
+		}
+	}
+
+	@Benchmark
+	public int cachedDocs() {
+		int length = 0;
+		for (String processorName : processorNames) {
+			length += docs.get(processorName, renderer).length();
+		}
+		return length;
+	}
+
+	@Benchmark
+	public Set<String> findProcessorNames() {
+		return docs.findProcessorNames();
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.ganteater.ae.desktop.editor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ganteater.ae.util.xml.easyparser.EasyParser;
+import com.ganteater.ae.util.xml.easyparser.Node;
+import com.ganteater.ai.Recipes;
+
+/**
+ * Lookup of the Extern processors used by the recipe, done by the AI Code
+ * Helper dialog for every request: the full EasyParser parse compared with
+ * the incremental {@link RecipeOutline} after a one character edit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecipeOutlineBenchmark {
+
+	@Param({ "2000", "200000", "4000000" })
+	int size;
+
+	private String recipe;
+	private PlainDocument document;
+	private RecipeOutline outline;
+
+	@Setup
+	public void setup() throws BadLocationException {
+		recipe = Recipes.generate(size);
+		document = new PlainDocument();
+		document.insertString(0, recipe, null);
+		outline = new RecipeOutline(document);
+	}
+
+	@Benchmark
+	public List<String> easyParser() throws Exception {
+		List<String> processorClassList = new ArrayList<>();
+		Node taskNode = new EasyParser().getObject(recipe);
+		if (taskNode != null) {
+			for (Node node : taskNode.getNodes("Extern")) {
+				processorClassList.add(node.getAttribute("class"));
+			}
+		}
+		return processorClassList;
+	}
+
+	@Benchmark
+	public Set<String> outlineAfterEdit() throws BadLocationException {
+		int offset = document.getLength() / 2;
+		document.insertString(offset, " ", null);
+		document.remove(offset, 1);
+		return outline.getExternClasses();
+	}
+
+	@Benchmark
+	public RecipeOutline outlineFullScan() {
+		RecipeOutline scanned = new RecipeOutline(document);
+		document.removeDocumentListener(scanned);
+		return scanned;
+	}
+
+}
@@ -0,0 +1,110 @@
+package com.ganteater.ae.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ganteater.ai.Conversation;
+import com.ganteater.ai.RateLimiter;
+import com.ganteater.ai.Recipes;
+import com.ganteater.ai.ResponseCache;
+import com.openai.core.JsonString;
+import com.openai.core.JsonValue;
+import com.openai.models.responses.FunctionTool;
+import com.openai.models.responses.ResponseCreateParams;
+import com.openai.models.responses.ResponseInputItem;
+import com.openai.models.responses.Tool;
+
+/**
+ * Assembly of the request sent by the Prompt command: the input messages,
+ * the parameters built by {@link OpenAI#promptParams} and the conversation
+ * input, the token estimate of the rate limiter and the response cache key.
+ * The network call is not included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestBenchmark {
+
+	@Param({ "2000", "200000", "4000000" })
+	int size;
+
+	@Param({ "0", "16" })
+	int toolCount;
+
+	private String text;
+	private List<Tool> tools;
+	private ResponseCreateParams params;
+	private ResponseCache cache;
+
+	@Setup
+	public void setup() throws IOException {
+		text = Recipes.generate(size);
+		tools = new ArrayList<>();
+		for (int i = 0; i < toolCount; i++) {
+			FunctionTool.Parameters parameters = FunctionTool.Parameters.builder()
+					.putAdditionalProperty("properties",
+							JsonValue.from(Map.of("city", Map.of("type", "string"))))
+					.putAdditionalProperty("type", JsonString.of("object"))
+					.putAdditionalProperty("required", JsonValue.from(List.of("city")))
+					.build();
+			tools.add(Tool.ofFunction(FunctionTool.builder()
+					.name("function" + i)
+					.description("Returns the weather of the city.")
+					.parameters(parameters)
+					.strict(false)
+					.build()));
+		}
+		params = assemble();
+
+		File directory = Files.createTempDirectory("response-cache").toFile();
+		directory.deleteOnExit();
+		cache = new ResponseCache(directory, 0, 0);
+	}
+
+	private ResponseCreateParams assemble() {
+		Conversation conversation = new Conversation(true);
+		conversation.add(ResponseInputItem.ofMessage(
+				OpenAI.inputMessage("You are a helpful recipe assistant.", "system")));
+		conversation.add(ResponseInputItem.ofMessage(OpenAI.inputMessage(text, "user")));
+
+		ResponseCreateParams.Builder builder = OpenAI.promptParams("gpt-5-mini", tools).toBuilder();
+		conversation.apply(builder);
+		return builder.build();
+	}
+
+	@Benchmark
+	public ResponseCreateParams assembleParams() {
+		return assemble();
+	}
+
+	@Benchmark
+	public long estimateTokens() {
+		return RateLimiter.estimateTokens(params);
+	}
+
+	@Benchmark
+	public String cacheKey() {
+		return cache.key(params);
+	}
+
+}
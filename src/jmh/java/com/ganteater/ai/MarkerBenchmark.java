@@ -0,0 +1,54 @@
+package com.ganteater.ai;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Extraction of the cursor and selection markers from the model output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarkerBenchmark {
+
+	@Param({ "2000", "200000", "4000000" })
+	int size;
+
+	private String cursorText;
+	private String selectionText;
+
+	@Setup
+	public void setup() {
+		String recipe = Recipes.generate(size);
+		cursorText = new StringBuilder(recipe).insert(recipe.length() / 2, Marker.CURSOR).toString();
+		selectionText = new StringBuilder(recipe)
+				.insert(recipe.length() * 3 / 4, Marker.SELECTION_END)
+				.insert(recipe.length() / 4, Marker.SELECTION_START)
+				.toString();
+	}
+
+	@Benchmark
+	public MarkerExtractResult extractCursor() {
+		return Marker.extractAll(cursorText);
+	}
+
+	@Benchmark
+	public MarkerExtractResult extractSelection() {
+		return Marker.extractAll(selectionText);
+	}
+
+}
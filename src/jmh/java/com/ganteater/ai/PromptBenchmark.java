@@ -0,0 +1,72 @@
+package com.ganteater.ai;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Assembly of the AI Code Helper prompt: marking the editor source and
+ * rendering the prompt text.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PromptBenchmark {
+
+	private static final String INPUT = "Add a Prompt command that translates the summary to French.";
+
+	@Param({ "2000", "200000", "4000000" })
+	int size;
+
+	private String recipe;
+	private Prompt prompt;
+
+	@Setup
+	public void setup() {
+		recipe = Recipes.generate(size);
+		prompt = builder().build();
+	}
+
+	private Prompt.Builder builder() {
+		int caret = recipe.length() / 2;
+		return new Prompt.Builder()
+				.context("# Command Processor: OpenAI\n\nFully qualified class name: com.ganteater.ae.processor.OpenAI")
+				.source(recipe, "xml", caret, caret, caret)
+				.input(INPUT);
+	}
+
+	@Benchmark
+	public Prompt.Builder source() {
+		int caret = recipe.length() / 2;
+		return new Prompt.Builder().source(recipe, "xml", caret, caret, caret);
+	}
+
+	@Benchmark
+	public Prompt.Builder sourceWithSelection() {
+		return new Prompt.Builder().source(recipe, "xml", 0, recipe.length() / 4, recipe.length() * 3 / 4);
+	}
+
+	@Benchmark
+	public String buildPrompt() {
+		return prompt.buildPrompt();
+	}
+
+	@Benchmark
+	public String sourceAndBuildPrompt() {
+		return builder().build().buildPrompt();
+	}
+
+}
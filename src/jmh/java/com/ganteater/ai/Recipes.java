@@ -0,0 +1,35 @@
+package com.ganteater.ai;
+
+/**
+ * Generates recipe sources of the requested size for the benchmarks. Every
+ * block uses an Extern processor, so large recipes contain many processors.
+ */
+public final class Recipes {
+
+	private static final String[] PROCESSORS = { "OpenAI", "Web", "Json", "Shell", "Sql", "Excel", "Mail" };
+
+	private Recipes() {
+	}
+
+	public static String generate(int size) {
+		StringBuilder recipe = new StringBuilder(size + 1024);
+		recipe.append("<Recipe name=\"Benchmark\">\n");
+		for (int i = 0; recipe.length() < size; i++) {
+			String processor = PROCESSORS[i % PROCESSORS.length];
+			recipe.append("\t<!-- Block ").append(i).append(" -->\n");
+			recipe.append("\t<Extern class=\"").append(processor).append("\" model=\"gpt-5-mini\" apiKey=\"$var{API_KEY}\">\n");
+			recipe.append("\t\t<Var name=\"page").append(i).append("\" value=\"https://example.com/page/").append(i)
+					.append("\" />\n");
+			recipe.append("\t\t<Prompt name=\"summary").append(i).append("\">\n");
+			recipe.append("\t\t\t<message role=\"system\">You are a helpful summarization assistant.</message>\n");
+			recipe.append("\t\t\t<message role=\"user\">Summarize the page $var{page").append(i)
+					.append("} in one sentence.</message>\n");
+			recipe.append("\t\t</Prompt>\n");
+			recipe.append("\t\t<Out name=\"summary").append(i).append("\" level=\"info\" />\n");
+			recipe.append("\t</Extern>\n");
+		}
+		recipe.append("</Recipe>\n");
+		return recipe.toString();
+	}
+
+}
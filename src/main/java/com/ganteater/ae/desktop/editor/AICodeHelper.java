@@ -5,6 +5,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javax.swing.text.Document;
+
 import org.apache.commons.lang.StringUtils;
 
 import com.ganteater.ae.processor.BaseProcessor;
@@ -12,13 +14,25 @@ import com.ganteater.ae.processor.Processor;
 import com.ganteater.ae.processor.annotation.CommandInfo;
 import com.ganteater.ae.util.AEUtils;
 import com.ganteater.ae.util.xml.easyparser.Node;
+import com.ganteater.ai.ClientRegistry;
+import com.ganteater.ai.ClientRegistry.Settings;
+import com.ganteater.ai.PooledHttpClient;
+import com.ganteater.ai.RateLimiter;
 import com.openai.client.OpenAIClient;
-import com.openai.client.okhttp.OpenAIOkHttpClient;
 
 public class AICodeHelper extends CodeHelper {
 
+	private static final ProcessorDocsCache processorDocs = new ProcessorDocsCache(AICodeHelper.class.getClassLoader());
+
 	private String chatModel;
 	private boolean debug;
+	private int windowLines;
+	private boolean patchOutput;
+	private long maxInputTokens;
+	private RateLimiter rateLimiter;
+	private OpenAIClient client;
+	private PooledHttpClient transport;
+	private RecipeOutline outline;
 
 	public AICodeHelper(TextEditor textEditor) throws IOException, IllegalAccessException {
 		super(textEditor);
@@ -31,19 +45,51 @@ public class AICodeHelper extends CodeHelper {
 		chatModel = StringUtils.defaultIfEmpty(taskProcessor.attr(editorNode, "model"), "gpt-5-mini");
 
 		debug = Boolean.parseBoolean(taskProcessor.attr(editorNode, "debug", "false"));
+		windowLines = Integer.parseInt(taskProcessor.attr(editorNode, "windowLines", "0"));
+		patchOutput = "patch".equals(taskProcessor.attr(editorNode, "editFormat", "text"));
+		maxInputTokens = Long.parseLong(taskProcessor.attr(editorNode, "maxInputTokens", "0"));
 
 		String apiKey = taskProcessor.attr(editorNode, "apiKey");
 		if (apiKey == null) {
 			throw new IllegalArgumentException("apiKey attribute required.");
 		}
 
-		OpenAIClient client = OpenAIOkHttpClient.builder().apiKey(apiKey).build();
+		Settings settings = Settings.fromAttributes(attrName -> taskProcessor.attr(editorNode, attrName));
+		client = ClientRegistry.getClient(settings);
+		transport = ClientRegistry.getTransport(settings);
+		rateLimiter = ClientRegistry.getRateLimiter(settings);
+
+		processorDocs.warmUp(this::renderExampleContext);
 
-		AIHelperDialog aiHelperDialog = new AIHelperDialog(this, client);
+		outline = new RecipeOutline(textEditor.getDocument());
+		textEditor.addPropertyChangeListener("document", e -> outline.attach((Document) e.getNewValue()));
+
+		// The helper requests are sent through the rate limiter, which retries them.
+		AIHelperDialog aiHelperDialog = new AIHelperDialog(this, ClientRegistry.getRateLimitedClient(settings));
 		super.setDefaultDialog(aiHelperDialog);
 	}
 
+	/**
+	 * Opens a keep-alive connection to the API when the pool has no idle or
+	 * busy one, so the next request does not wait for the TLS handshake. The
+	 * model description is requested, which does not consume tokens.
+	 */
+	public void warmUpConnection() {
+		if (transport.getIdleConnectionCount() > 0 || transport.getRunningCallsCount() > 0) {
+			return;
+		}
+		client.models().retrieve(chatModel);
+	}
+
+	/**
+	 * Returns the processor documentation, rendered once per processor and
+	 * class path.
+	 */
 	public String appendExampleContext(String processorName) {
+		return processorDocs.get(processorName, this::renderExampleContext);
+	}
+
+	private String renderExampleContext(String processorName) {
 		StringBuilder contextBuilder = new StringBuilder();
 		String processorClassName = Processor.getFullClassName(processorName);
 
@@ -151,4 +197,35 @@ public class AICodeHelper extends CodeHelper {
 		return debug;
 	}
 
+	/**
+	 * Returns the number of lines around the cursor or selection sent to the
+	 * model instead of the whole recipe, 0 - the whole recipe is sent.
+	 */
+	public int getWindowLines() {
+		return windowLines;
+	}
+
+	/**
+	 * Returns <code>true</code> if the model is asked for search/replace blocks
+	 * instead of the whole recipe.
+	 */
+	public boolean isPatchOutput() {
+		return patchOutput;
+	}
+
+	/**
+	 * Returns the input token limit of the request, 0 - no limit.
+	 */
+	public long getMaxInputTokens() {
+		return maxInputTokens;
+	}
+
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	public RecipeOutline getOutline() {
+		return outline;
+	}
+
 }
@@ -1,6 +1,7 @@
 package com.ganteater.ae.desktop.editor;
 
 import java.awt.BorderLayout;
+import java.awt.CardLayout;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
@@ -13,17 +14,29 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedHashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JOptionPane;
+import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.SwingUtilities;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.event.UndoableEditListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.undo.CompoundEdit;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
@@ -38,28 +51,63 @@ import com.ganteater.ae.ILogger;
 import com.ganteater.ae.desktop.ui.OptionPane;
 import com.ganteater.ae.processor.BaseProcessor;
 import com.ganteater.ae.util.AEUtils;
-import com.ganteater.ae.util.xml.easyparser.EasyParser;
-import com.ganteater.ae.util.xml.easyparser.Node;
+import com.ganteater.ai.AgentLoop;
+import com.ganteater.ai.AgentLoop.Round;
+import com.ganteater.ai.ContextAssembler;
+import com.ganteater.ai.ContextAssembler.Stability;
+import com.ganteater.ai.ContextBudget;
+import com.ganteater.ai.Conversation;
+import com.ganteater.ai.EditWindow;
 import com.ganteater.ai.Marker;
 import com.ganteater.ai.MarkerExtractResult;
+import com.ganteater.ai.MetricsRegistry;
 import com.ganteater.ai.Prompt;
+import com.ganteater.ai.PromptMetrics;
+import com.ganteater.ai.TextDiff;
+import com.ganteater.ai.TextDiff.Edit;
+import com.ganteater.ai.RateLimiter;
+import com.ganteater.ai.SearchReplacePatch;
+import com.ganteater.ai.SingleFlightExecutor;
 import com.openai.client.OpenAIClient;
 import com.openai.core.JsonValue;
+import com.openai.core.http.StreamResponse;
 import com.openai.errors.RateLimitException;
+import com.openai.helpers.ResponseAccumulator;
 import com.openai.models.responses.Response;
 import com.openai.models.responses.ResponseCreateParams;
-import com.openai.models.responses.ResponseCreateParams.Builder;
-import com.openai.models.responses.ResponseCreateParams.Input;
 import com.openai.models.responses.ResponseFunctionToolCall;
 import com.openai.models.responses.ResponseInputItem;
 import com.openai.models.responses.ResponseInputItem.Message;
+import com.openai.models.responses.ResponseOutputItem;
 import com.openai.models.responses.ResponseOutputMessage.Content;
-import com.openai.models.responses.ResponseUsage;
+import com.openai.models.responses.ResponseStreamEvent;
 
 public class AIHelperDialog extends HelperDialog {
 
 	private static final String REQUEST_BUTTON_TEXT = "Perform";
-	private static Map<String, ResponseInputItem> contextMap = new LinkedHashMap<>();
+	private static final String CANCEL_BUTTON_TEXT = "Cancel";
+	private static final String EDITOR_CARD = "editor";
+	private static final String PREVIEW_CARD = "preview";
+	private static final long PREVIEW_UPDATE_INTERVAL = 100;
+	private static final int MAX_QUEUED_REQUESTS = 8;
+	private static final long REQUEST_DEBOUNCE_DELAY = 150;
+	private static final int MAX_TOOL_STEPS = 5;
+	private static final String METRICS_NAME = "AIHelper";
+	private static final int MAX_OUTLINE_NAMES = 100;
+	private static final long MAX_CONTEXT_TOKENS = 100_000;
+
+	/**
+	 * The context stores of the configurations, identified by the model and
+	 * the system variables.
+	 */
+	private static final Map<String, ContextAssembler> contexts = new ConcurrentHashMap<>();
+
+	/**
+	 * One request in flight per editor, shared by the helper dialogs of all
+	 * editors.
+	 */
+	private static final SingleFlightExecutor<TextEditor> REQUEST_EXECUTOR = new SingleFlightExecutor<>(
+			"AIHelperRequest", MAX_QUEUED_REQUESTS, REQUEST_DEBOUNCE_DELAY);
 
 	private ILogger log;
 
@@ -67,6 +115,18 @@ public class AIHelperDialog extends HelperDialog {
 
 	private JButton perform = new JButton(REQUEST_BUTTON_TEXT);
 
+	private JTextArea preview = new JTextArea();
+
+	private JPanel cards = new JPanel(new CardLayout());
+
+	private JButton cancel = new JButton(CANCEL_BUTTON_TEXT);
+
+	private volatile HelperRequest request;
+
+	private final AtomicBoolean warmingUp = new AtomicBoolean();
+
+	private final ContextAssembler context;
+
 	public AIHelperDialog(final CodeHelper codeHelper, final OpenAIClient client) {
 		super(codeHelper);
 
@@ -82,21 +142,41 @@ public class AIHelperDialog extends HelperDialog {
 		comp.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
 		comp.setPreferredSize(new Dimension(300, 150));
 
+		preview.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
+		preview.setLineWrap(true);
+		preview.setEditable(false);
+
+		JScrollPane previewPane = new JScrollPane(preview);
+		previewPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+		previewPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
+		previewPane.setPreferredSize(comp.getPreferredSize());
+
+		cards.add(comp, EDITOR_CARD);
+		cards.add(previewPane, PREVIEW_CARD);
+
+		String appendSystemVariablesContext = getCodeHelper().appendSystemVariablesContext();
+		context = contexts.computeIfAbsent(getCodeHelper().getChatModel() + "\n" + appendSystemVariablesContext,
+				key -> new ContextAssembler(MAX_CONTEXT_TOKENS));
+
 		String generalInfo;
 		try {
 			generalInfo = AEUtils.loadResource("/generalInfo.md");
-			addContextInput("GeneralInfo", generalInfo);
+			context.put("GeneralInfo", Stability.GENERAL, generalInfo);
 		} catch (Exception e) {
 			getLog().error("Resource: " + "/generalInfo.md" + " not found.", e);
 		}
 
-		String appendSystemVariablesContext = getCodeHelper().appendSystemVariablesContext();
-		addContextInput("SystemVariablesContext", appendSystemVariablesContext);
+		context.put("SystemVariablesContext", Stability.ENVIRONMENT, appendSystemVariablesContext);
 
 		addProcessorInfo(BaseProcessor.class.getSimpleName());
 
-		getContentPane().add(comp, BorderLayout.CENTER);
-		getContentPane().add(perform, BorderLayout.SOUTH);
+		JPanel buttons = new JPanel(new BorderLayout());
+		buttons.add(perform, BorderLayout.CENTER);
+		buttons.add(cancel, BorderLayout.EAST);
+		cancel.setVisible(false);
+
+		getContentPane().add(cards, BorderLayout.CENTER);
+		getContentPane().add(buttons, BorderLayout.SOUTH);
 
 		perform.addActionListener(new ActionListener() {
 			@Override
@@ -105,6 +185,22 @@ public class AIHelperDialog extends HelperDialog {
 			}
 		});
 
+		cancel.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				cancel();
+			}
+		});
+
+		preview.addKeyListener(new KeyAdapter() {
+			@Override
+			public void keyPressed(KeyEvent e) {
+				if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+					cancel();
+				}
+			}
+		});
+
 		editor.addKeyListener(new KeyAdapter() {
 			@Override
 			public void keyPressed(KeyEvent e) {
@@ -128,7 +224,8 @@ public class AIHelperDialog extends HelperDialog {
 			@Override
 			public void focusLost(FocusEvent e) {
 				Component cmp = e.getOppositeComponent();
-				if (cmp != AIHelperDialog.this && cmp != editor && cmp != perform) {
+				if (cmp != AIHelperDialog.this && cmp != editor && cmp != perform && cmp != cancel
+						&& cmp != preview) {
 					setVisible(false);
 				}
 			}
@@ -136,43 +233,99 @@ public class AIHelperDialog extends HelperDialog {
 
 	}
 
+	/**
+	 * Submits the request to the executor of the editor. A repeated submission
+	 * within the debounce delay replaces the previous one before it is sent.
+	 */
 	private void perform(final OpenAIClient client) {
-		new Thread(() -> {
-			AICodeHelper aiHelper = getCodeHelper();
-			TextEditor textEditor = getCodeHelper().getEditor();
+		HelperRequest helperRequest = new HelperRequest();
+		request = helperRequest;
+
+		preview.setText("");
+		perform.setEnabled(false);
+		perform.setText("Waiting for the response ...");
+		cancel.setEnabled(true);
+		cancel.setVisible(true);
+		showCard(PREVIEW_CARD);
 
-			Collection<String> processors = getProcessorNames(textEditor.getText());
-			for (String processorName : processors) {
-				if (!contextMap.containsKey(processorName)) {
-					String processorInfo = aiHelper.appendExampleContext(processorName);
-					addContextInput(processorName, processorInfo);
+		try {
+			REQUEST_EXECUTOR.submit(getCodeHelper().getEditor(), () -> {
+				Collection<String> processors = getProcessorNames();
+				for (String processorName : processors) {
+					if (!context.contains(processorName)) {
+						addProcessorInfo(processorName);
+					}
 				}
-			}
 
-			try {
-				perform.setEnabled(false);
-				perform.setText("Waiting for the response ...");
-				performRequest(client);
-				setVisible(false);
+				performRequest(client, getCodeHelper().isPatchOutput(), helperRequest);
+				if (!helperRequest.isCancelled()) {
+					setVisible(false);
+				}
+			}, helperRequest::cancel).whenComplete((result, e) -> {
+				if (e != null && !(e instanceof CancellationException)) {
+					getLog().error("The helper request failed.", e);
+				}
+				SwingUtilities.invokeLater(() -> finish(helperRequest));
+			});
+			debug("Helper requests in the queue: " + REQUEST_EXECUTOR.getQueueDepth());
 
-			} finally {
-				perform.setText(REQUEST_BUTTON_TEXT);
-				perform.setEnabled(true);
-			}
-		}).start();
+		} catch (RejectedExecutionException e) {
+			finish(helperRequest);
+			OptionPane.showMessageDialog(getCodeHelper().getRecipePanel().getFrame(), e.getLocalizedMessage(),
+					"Request Queue", JOptionPane.ERROR_MESSAGE);
+		}
 	}
 
-	private void addContextInput(String name, String processorInfo) {
-		Message message = com.openai.models.responses.ResponseInputItem.Message
-				.builder()
-				.role(com.openai.models.responses.ResponseInputItem.Message.Role.USER)
-				.addInputTextContent(processorInfo)
-				.build();
+	/**
+	 * Restores the dialog controls, unless the request is superseded by a
+	 * newer one.
+	 */
+	private void finish(HelperRequest helperRequest) {
+		if (request != helperRequest) {
+			return;
+		}
+		request = null;
+
+		perform.setText(REQUEST_BUTTON_TEXT);
+		perform.setEnabled(true);
+		cancel.setVisible(false);
+		showCard(EDITOR_CARD);
+	}
+
+	/**
+	 * Cancels the waiting or the running request of the editor.
+	 */
+	private void cancel() {
+		HelperRequest helperRequest = request;
+		if (helperRequest == null) {
+			return;
+		}
 
-		contextMap.put(name, ResponseInputItem.ofMessage(message));
+		cancel.setEnabled(false);
+		perform.setText("Cancelling ...");
+		helperRequest.cancel();
+		REQUEST_EXECUTOR.cancel(getCodeHelper().getEditor());
+	}
+
+	private void showCard(String name) {
+		((CardLayout) cards.getLayout()).show(cards, name);
+		if (EDITOR_CARD.equals(name)) {
+			editor.requestFocusInWindow();
+		} else {
+			preview.requestFocusInWindow();
+		}
 	}
 
 	protected void performRequest(OpenAIClient client) {
+		performRequest(client, getCodeHelper().isPatchOutput(), new HelperRequest());
+	}
+
+	/**
+	 * Sends the request. In the patch mode the model is asked for search/replace
+	 * blocks, and if they do not match the recipe, the request is repeated in
+	 * the full text mode.
+	 */
+	private void performRequest(OpenAIClient client, boolean patch, HelperRequest helperRequest) {
 		try {
 			TextEditor textEditor = getCodeHelper().getEditor();
 
@@ -180,22 +333,46 @@ public class AIHelperDialog extends HelperDialog {
 			int selectionStart = textEditor.getSelectionStart();
 			int selectionEnd = textEditor.getSelectionEnd();
 
-			List<ResponseInputItem> inputs = new ArrayList<>();
-
-			Collection<ResponseInputItem> values = contextMap.values();
-			for (ResponseInputItem processorInfo : values) {
-				String text = processorInfo.message().get().content().get(0).inputText().get().text();
-				debug(new AELogRecord(text, "md", "Input"));
-				inputs.add(processorInfo);
-			}
-
 			String text = textEditor.getText();
-			Prompt prompt = new Prompt.Builder()
-					.source(text, "xml", caretPosition, selectionStart, selectionEnd)
+			int windowLines = getCodeHelper().getWindowLines();
+			EditWindow window = windowLines > 0 ? EditWindow.create(text, selectionStart, selectionEnd, windowLines)
+					: null;
+
+			Prompt.Builder promptBuilder = new Prompt.Builder();
+			String patchSource = null;
+			if (patch) {
+				patchSource = window != null ? window.getText() : text;
+				promptBuilder.setInstruction(SearchReplacePatch.INSTRUCTION);
+			}
+			if (window != null) {
+				int offset = window.getStart();
+				promptBuilder.source(window.getText(), "xml", caretPosition - offset, selectionStart - offset,
+						selectionEnd - offset)
+						.setHint(windowHint(window));
+			} else {
+				promptBuilder.source(text, "xml", caretPosition, selectionStart, selectionEnd);
+			}
+			Prompt prompt = promptBuilder
 					.input(editor.getText())
 					.build();
 
 			String input = prompt.buildPrompt();
+
+			// The request is required, the context blocks are fitted into the rest of the budget.
+			ContextBudget budget = new ContextBudget(getCodeHelper().getMaxInputTokens());
+			budget.add("Request", ContextBudget.REQUIRED, input);
+
+			Collection<String> processorNames = getRelevantProcessorNames();
+			List<ResponseInputItem> inputs = context.inputs(processorNames, budget);
+			for (String change : budget.getReport()) {
+				getLog().warn("Input token budget: " + change);
+			}
+			if (getCodeHelper().isDebug()) {
+				for (String contextText : context.texts(processorNames)) {
+					debug(new AELogRecord(contextText, "md", "Input"));
+				}
+				debug("Estimated input: " + budget.getTokenCount() + " tokens.");
+			}
 			debug(new AELogRecord(input, "md", "Input"));
 
 			Message message = com.openai.models.responses.ResponseInputItem.Message
@@ -206,53 +383,90 @@ public class AIHelperDialog extends HelperDialog {
 
 			inputs.add(ResponseInputItem.ofMessage(message));
 
-			Builder builder = ResponseCreateParams.builder()
-					.model(getCodeHelper().getChatModel())
+			Conversation conversation = new Conversation(true);
+			conversation.addAll(inputs);
+
+			String chatModel = getCodeHelper().getChatModel();
+			ResponseCreateParams params = ResponseCreateParams.builder()
+					.model(chatModel)
+					.promptCacheKey(context.promptCacheKey(chatModel))
 					.addTool(GetProcessorInfo.class)
-					.input(Input.ofResponse(inputs));
-
-			Response response = client.responses().create(builder.build());
-			logUsage(response.usage());
-
-			List<ResponseInputItem> funcInputs = new ArrayList<>();
-			List<ResponseInputItem> reasoningInputs = new ArrayList<>();
-			response.output().forEach(item -> {
-				if (item.isFunctionCall()) {
-					ResponseFunctionToolCall functionCall = item.asFunctionCall();
-
-					funcInputs.add(ResponseInputItem.ofFunctionCall(functionCall));
-					funcInputs.add(ResponseInputItem.ofFunctionCallOutput(ResponseInputItem.FunctionCallOutput.builder()
-							.callId(functionCall.callId())
-							.outputAsJson(callFunction(functionCall, this))
-							.build()));
-				}
-				if (item.isReasoning()) {
-					ResponseInputItem reasoning = ResponseInputItem.ofReasoning(item.asReasoning());
-					reasoningInputs.add(reasoning);
-				}
-			});
+					.build();
 
-			if (!funcInputs.isEmpty()) {
-				inputs.addAll(reasoningInputs);
-				inputs.addAll(inputs);
-				builder.input(ResponseCreateParams.Input.ofResponse(inputs));
-				response = client.responses().create(builder.build());
-				logUsage(response.usage());
+			PromptMetrics metrics = new PromptMetrics();
+			AgentLoop loop = new AgentLoop(MAX_TOOL_STEPS)
+					.log(warning -> getLog().warn(warning))
+					.metrics(metrics);
+			Response response = loop.run(params, conversation,
+					request -> createResponse(client, request, metrics, helperRequest),
+					functionCall -> callFunction(functionCall, this));
+			for (Round round : loop.getRounds()) {
+				debug(round);
 			}
 
-			response.output().forEach(item -> {
-				if (item.isMessage()) {
-					List<Content> content = item.asMessage().content();
-					performMessage(content);
+			MetricsRegistry.record(METRICS_NAME, metrics.finish());
+			debug(metrics);
+			debug(String.format("Prompt cache hit ratio: %1$.2f", MetricsRegistry.getCacheHitRatio(METRICS_NAME)));
+
+			// A superseded request must not change the recipe.
+			helperRequest.checkCancelled();
+			for (ResponseOutputItem item : response.output()) {
+				if (item.isMessage() && !performMessage(item.asMessage().content(), window, patchSource)) {
+					debug("The patch does not match the recipe, the full text is requested.");
+					performRequest(client, false, helperRequest);
+					return;
 				}
-			});
+			}
 
 		} catch (RateLimitException e) {
 			OptionPane.showMessageDialog(getCodeHelper().getRecipePanel().getFrame(), e.getLocalizedMessage(),
 					"Rate Limit", JOptionPane.ERROR_MESSAGE);
+		} catch (CancellationException e) {
+			debug(e.getMessage());
 		}
 	}
 
+	/**
+	 * Sends the request in the streaming mode, the generated text is shown in
+	 * the preview as it arrives.
+	 *
+	 * @throws CancellationException if the request is cancelled by the user.
+	 */
+	private Response createResponse(OpenAIClient client, ResponseCreateParams params, PromptMetrics metrics,
+			HelperRequest helperRequest) {
+		RateLimiter rateLimiter = getCodeHelper().getRateLimiter();
+		long estimatedTokens = RateLimiter.estimateTokens(params);
+		ResponseAccumulator accumulator = ResponseAccumulator.create();
+		StreamingPreview streamingPreview = new StreamingPreview(helperRequest);
+
+		try (StreamResponse<ResponseStreamEvent> streamResponse = rateLimiter.execute(estimatedTokens,
+				() -> client.responses().withRawResponse().createStreaming(params), metrics)) {
+			helperRequest.setStream(streamResponse);
+			Iterator<ResponseStreamEvent> events = streamResponse.stream().iterator();
+			while (!helperRequest.isCancelled() && events.hasNext()) {
+				ResponseStreamEvent event = accumulator.accumulate(events.next());
+				if (event.isOutputTextDelta()) {
+					streamingPreview.append(event.asOutputTextDelta().delta());
+				}
+			}
+		} catch (RuntimeException e) {
+			if (!helperRequest.isCancelled()) {
+				throw e;
+			}
+		} finally {
+			helperRequest.setStream(null);
+		}
+
+		helperRequest.checkCancelled();
+		streamingPreview.flush();
+
+		Response response = accumulator.response();
+		rateLimiter.complete(estimatedTokens, response);
+		metrics.usage(response);
+		debug(rateLimiter);
+		return response;
+	}
+
 	private static Object callFunction(ResponseFunctionToolCall function, AIHelperDialog helperDialog) {
 		switch (function.name()) {
 		case "GetProcessorInfo":
@@ -264,55 +478,265 @@ public class AIHelperDialog extends HelperDialog {
 		}
 	}
 
-	private void performMessage(List<Content> content) {
+	/**
+	 * Describes the position of the window in the recipe: the enclosing tags
+	 * and the outline of the whole recipe.
+	 */
+	private String windowHint(EditWindow window) {
+		StringBuilder hint = new StringBuilder();
+		hint.append(String.format(
+				"The source is a fragment of the recipe: lines %1$d-%2$d of %3$d. Edit only this fragment and return "
+						+ "only the edited fragment, the lines outside of it are kept unchanged.\n\n",
+				window.getFirstLine(), window.getLastLine(), window.getLineCount()));
+
+		List<String> enclosingTags = window.getEnclosingTags();
+		if (!enclosingTags.isEmpty()) {
+			hint.append("The fragment is located inside the tags:\n\n```xml\n");
+			String indent = "";
+			for (String tag : enclosingTags) {
+				hint.append(indent).append(tag).append("\n");
+				indent += "\t";
+			}
+			hint.append("```\n\n");
+		}
+
+		RecipeOutline outline = getCodeHelper().getOutline();
+		hint.append("Recipe outline:\n");
+		hint.append("- Processors: ").append(outlineNames(outline.getExternClasses())).append("\n");
+		hint.append("- Functions: ").append(outlineNames(outline.getFunctions())).append("\n");
+		hint.append("- Variables: ").append(outlineNames(outline.getVariables())).append("\n");
+		return hint.toString();
+	}
+
+	private static String outlineNames(Collection<String> names) {
+		if (names.isEmpty()) {
+			return "none";
+		}
+		if (names.size() <= MAX_OUTLINE_NAMES) {
+			return StringUtils.join(names, ", ");
+		}
+		return StringUtils.join(new ArrayList<>(names).subList(0, MAX_OUTLINE_NAMES), ", ") + ", ... ("
+				+ names.size() + " total)";
+	}
+
+	private static boolean isRecipe(String code) {
+		return StringUtils.startsWith(StringUtils.trim(Marker.extractAll(code).getText()), "<Recipe");
+	}
+
+	/**
+	 * Applies the model result to the recipe.
+	 *
+	 * @param patchSource the source the search/replace blocks are applied to,
+	 *                    <code>null</code> in the full text mode.
+	 * @return <code>false</code> if the response contains search/replace blocks
+	 *         which do not match the source.
+	 */
+	private boolean performMessage(List<Content> content, EditWindow window, String patchSource) {
 		String responseText = content.get(0).outputText().get().text();
 		debug(new AELogRecord(responseText, "xml", "Output"));
 
+		String code;
+		if (patchSource != null && SearchReplacePatch.hasBlocks(responseText)) {
+			code = SearchReplacePatch.apply(patchSource, responseText);
+			if (code == null) {
+				return false;
+			}
+		} else {
+			code = StringUtils.substringBetween(responseText, "```xml\n", "```");
+			if (code == null) {
+				code = responseText;
+			}
+		}
+
 		getCodeHelper().hide();
-		updateCode(responseText);
+		updateCode(code, window);
+		return true;
 	}
 
-	private void updateCode(String responseText) {
-		String code = StringUtils.substringBetween(responseText, "```xml\n", "```");
-		if (code == null) {
-			code = responseText;
+	/**
+	 * Updates the recipe with the model result. In the window mode the result
+	 * is the edited window, which is spliced into the recipe text, unless the
+	 * model returned the whole recipe.
+	 */
+	private void updateCode(String code, EditWindow window) {
+		if (window != null && isRecipe(code) && !isRecipe(window.getText())) {
+			getLog().warn("The whole recipe is returned for the fragment, it replaces the recipe.");
+			window = null;
 		}
-
 		MarkerExtractResult mextract = Marker.extractAll(code);
+		String text = window == null ? mextract.getText() : window.splice(mextract.getText());
+		int markerOffset = window == null ? 0 : window.getStart();
+		boolean compile = StringUtils.isNotBlank(code);
+
+		// The difference is calculated in the worker thread and recalculated
+		// only if the recipe is edited before the patch is applied.
+		TextEditor textEditor = getCodeHelper().getEditor();
+		RecipeOutline outline = getCodeHelper().getOutline();
+		long version = outline.getVersion();
+		List<Edit> edits = TextDiff.diff(textEditor.getText(), text);
+
+		SwingUtilities.invokeLater(() -> {
+			List<Edit> patch = outline.getVersion() == version ? edits : TextDiff.diff(textEditor.getText(), text);
+			applyPatch(textEditor, patch, text);
+
+			if (compile) {
+				if (!patch.isEmpty()) {
+					TaskEditor recipePanel = textEditor.getRecipePanel();
+					recipePanel.compileTask();
+					recipePanel.refreshTaskTree();
+				}
+				selectMarkers(textEditor, mextract, markerOffset);
+			}
+		});
+	}
+
+	/**
+	 * Applies the changed ranges to the document from the last to the first,
+	 * so the offsets of the preceding edits stay valid and the unchanged text
+	 * keeps its undo history. The edits are collected into one compound edit,
+	 * so the change is undone in one step.
+	 */
+	private void applyPatch(TextEditor textEditor, List<Edit> edits, String text) {
+		Document document = textEditor.getDocument();
+		UndoableEditListener[] undoListeners = document instanceof AbstractDocument
+				? ((AbstractDocument) document).getUndoableEditListeners()
+				: new UndoableEditListener[0];
+		CompoundEdit compoundEdit = new CompoundEdit();
+		UndoableEditListener collector = e -> compoundEdit.addEdit(e.getEdit());
+		for (UndoableEditListener listener : undoListeners) {
+			document.removeUndoableEditListener(listener);
+		}
+		document.addUndoableEditListener(collector);
+
+		boolean applied = false;
+		try {
+			for (int i = edits.size() - 1; i >= 0; i--) {
+				Edit edit = edits.get(i);
+				if (edit.getLength() > 0) {
+					document.remove(edit.getOffset(), edit.getLength());
+				}
+				if (!edit.getText().isEmpty()) {
+					document.insertString(edit.getOffset(), edit.getText(), null);
+				}
+			}
+			applied = true;
+		} catch (BadLocationException e) {
+			getLog().error("Code patching failed, the whole text is replaced.", e);
+		} finally {
+			document.removeUndoableEditListener(collector);
+			for (UndoableEditListener listener : undoListeners) {
+				document.addUndoableEditListener(listener);
+			}
+			compoundEdit.end();
+		}
+
+		if (applied) {
+			UndoableEditEvent event = new UndoableEditEvent(document, compoundEdit);
+			for (UndoableEditListener listener : undoListeners) {
+				listener.undoableEditHappened(event);
+			}
+		} else {
+			// The partial edits are reverted, so the replacement is one undo step as well.
+			if (compoundEdit.canUndo()) {
+				compoundEdit.undo();
+			}
+			textEditor.setText(text);
+		}
+	}
+
+	private void selectMarkers(TextEditor textEditor, MarkerExtractResult mextract, int offset) {
 		int cursor = mextract.getPosition(Marker.CURSOR);
 		int start = mextract.getPosition(Marker.SELECTION_START);
 		int end = mextract.getPosition(Marker.SELECTION_END);
+		try {
+			textEditor.setCaretPosition(cursor < 0 ? textEditor.getCaretPosition() : cursor + offset);
+			if (start >= 0 && end >= start) {
+				textEditor.select(start + offset, end + offset);
+			}
+		} catch (IllegalArgumentException e) {
+			textEditor.setCaretPosition(textEditor.getDocument().getLength());
+		}
+	}
 
-		TextEditor textEditor = getCodeHelper().getEditor();
-		textEditor.setText(mextract.getText());
-		if (StringUtils.isNotBlank(code)) {
-			textEditor.getRecipePanel().compileTask();
+	/**
+	 * Shows the streamed text in the preview and the generation speed on the
+	 * perform button. Each text delta is counted as one token, the preview is
+	 * updated at most once per {@link #PREVIEW_UPDATE_INTERVAL} milliseconds.
+	 */
+	private class StreamingPreview {
+		private final HelperRequest helperRequest;
+		private final StringBuilder pending = new StringBuilder();
+		private long firstDeltaTime;
+		private long updateTime;
+		private int deltaCount;
+
+		StreamingPreview(HelperRequest helperRequest) {
+			this.helperRequest = helperRequest;
+		}
 
-			TaskEditor recipePanel = getCodeHelper().getEditor().getRecipePanel();
-			recipePanel.compileTask();
-			recipePanel.refreshTaskTree();
-			try {
-				textEditor.setCaretPosition(cursor < 0 ? textEditor.getCaretPosition() : cursor);
-				if (start > 0) {
-					textEditor.select(start, end);
-				}
-			} catch (IllegalArgumentException e1) {
-				textEditor.setCaretPosition(code.length());
+		void append(String delta) {
+			long now = System.currentTimeMillis();
+			if (deltaCount++ == 0) {
+				firstDeltaTime = now;
+			}
+			pending.append(delta);
+			if (now - updateTime >= PREVIEW_UPDATE_INTERVAL) {
+				flush();
 			}
+		}
 
+		void flush() {
+			if (deltaCount == 0) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+			updateTime = now;
+			double tokensPerSecond = deltaCount * 1000.0 / Math.max(1, now - firstDeltaTime);
+			String status = String.format("Generating ... %1$d tokens, %2$.1f tokens/s", deltaCount,
+					tokensPerSecond);
+			String text = pending.toString();
+			pending.setLength(0);
+
+			SwingUtilities.invokeLater(() -> {
+				if (!helperRequest.isCancelled()) {
+					preview.append(text);
+					perform.setText(status);
+				}
+			});
 		}
 	}
 
-	private void logUsage(Optional<ResponseUsage> optional) {
-		if (optional.isPresent()) {
-			ResponseUsage responseUsage = optional.get();
-			long inputTokens = responseUsage.inputTokens();
-			long inputCachedTokens = optional.get().inputTokensDetails().cachedTokens();
-			long outputTokens = optional.get().outputTokens();
-			long reasoningTokens = optional.get().outputTokensDetails().reasoningTokens();
+	/**
+	 * The cancellation state of one request: the response stream is closed on
+	 * the cancellation, which aborts the HTTP call.
+	 */
+	private static class HelperRequest {
+		private volatile boolean cancelled;
+		private volatile StreamResponse<ResponseStreamEvent> stream;
+
+		void cancel() {
+			cancelled = true;
+			StreamResponse<ResponseStreamEvent> streamResponse = stream;
+			if (streamResponse != null) {
+				streamResponse.close();
+			}
+		}
 
-			debug(String.format("Input: %1$d, cached: %2$d, output: %3$d, reasoning: %4$d tokens.",
-					inputTokens, inputCachedTokens, outputTokens, reasoningTokens));
+		boolean isCancelled() {
+			return cancelled;
+		}
+
+		void checkCancelled() {
+			if (cancelled) {
+				throw new CancellationException("The request is cancelled.");
+			}
+		}
+
+		void setStream(StreamResponse<ResponseStreamEvent> stream) {
+			this.stream = stream;
+			if (stream != null && cancelled) {
+				stream.close();
+			}
 		}
 	}
 
@@ -333,22 +757,22 @@ public class AIHelperDialog extends HelperDialog {
 		}
 	}
 
-	public Collection<String> getProcessorNames(String textEditor) {
-		List<String> processorClassList = new ArrayList<>();
-		try {
-			Node taskNode = new EasyParser().getObject(textEditor);
-			if (taskNode != null) {
-				Node[] nodes = taskNode.getNodes("Extern");
-				for (Node node : nodes) {
-					String processorClassName = node.getAttribute("class");
-					processorClassList.add(processorClassName);
-				}
-			}
-		} catch (Exception e) {
-			getLog().error("Recipe parsing failed.", e);
-		}
+	/**
+	 * Returns the Extern processor classes of the recipe from the outline
+	 * maintained by the editor document events.
+	 */
+	public Collection<String> getProcessorNames() {
+		return getCodeHelper().getOutline().getExternClasses();
+	}
 
-		return processorClassList;
+	/**
+	 * Returns the processors which documentation is sent with the request:
+	 * the base processor and the Extern processors of the recipe.
+	 */
+	private Collection<String> getRelevantProcessorNames() {
+		Set<String> names = new HashSet<>(getProcessorNames());
+		names.add(BaseProcessor.class.getSimpleName());
+		return names;
 	}
 
 	public Object getProcessorDescription(Object processorName) {
@@ -371,6 +795,38 @@ public class AIHelperDialog extends HelperDialog {
 		SwingUtilities.invokeLater(() -> {
 			editor.requestFocusInWindow();
 		});
+		warmUp();
+	}
+
+	/**
+	 * Prepares the request while the user types the instruction: the context
+	 * blocks of the recipe processors are rendered and a connection to the API
+	 * is opened, so the request is sent right after Perform is pressed.
+	 */
+	private void warmUp() {
+		if (!warmingUp.compareAndSet(false, true)) {
+			return;
+		}
+
+		Thread thread = new Thread(() -> {
+			try {
+				for (String processorName : getProcessorNames()) {
+					if (!context.contains(processorName)) {
+						addProcessorInfo(processorName);
+					}
+				}
+
+				getCodeHelper().warmUpConnection();
+
+			} catch (RuntimeException e) {
+				// The warm-up is optional, the request reports the errors.
+				debug("Warm-up failed: " + e.getMessage());
+			} finally {
+				warmingUp.set(false);
+			}
+		}, "AIHelperWarmUp");
+		thread.setDaemon(true);
+		thread.start();
 	}
 
 	@Override
@@ -396,7 +852,7 @@ public class AIHelperDialog extends HelperDialog {
 		String processorInfo = getCodeHelper().appendExampleContext(name);
 		com.ganteater.ai.Prompt.Builder promptBuilder = new Prompt.Builder();
 		String text = promptBuilder.context(processorInfo).build().buildPrompt();
-		addContextInput(name, text);
+		context.put(name, Stability.PROCESSOR, text);
 		return text;
 	}
 
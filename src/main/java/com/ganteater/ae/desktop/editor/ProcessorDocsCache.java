@@ -0,0 +1,160 @@
+package com.ganteater.ae.desktop.editor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.ganteater.ae.processor.BaseProcessor;
+import com.ganteater.ae.processor.Processor;
+
+/**
+ * Cache of the rendered processor documentation. The documentation is
+ * rendered once per processor and class path: the cache is cleared when the
+ * plugin class loader or its URLs change. The warm-up renders the
+ * documentation of all processors found in the processor package in a
+ * background thread.
+ */
+class ProcessorDocsCache {
+
+	private static final String CLASS_EXTENSION = ".class";
+
+	private final Map<String, String> docs = new ConcurrentHashMap<>();
+	private final ClassLoader classLoader;
+	private long classPathVersion = -1;
+	private boolean warmedUp;
+
+	ProcessorDocsCache(ClassLoader classLoader) {
+		this.classLoader = classLoader;
+	}
+
+	String get(String processorName, Function<String, String> renderer) {
+		checkClassPath();
+		return docs.computeIfAbsent(processorName, renderer);
+	}
+
+	/**
+	 * Renders the documentation of all processors in a daemon thread, once per
+	 * class path.
+	 */
+	synchronized void warmUp(Function<String, String> renderer) {
+		checkClassPath();
+		if (warmedUp) {
+			return;
+		}
+		warmedUp = true;
+
+		Thread thread = new Thread(() -> {
+			for (String processorName : findProcessorNames()) {
+				get(processorName, renderer);
+			}
+		}, "ProcessorDocsWarmUp");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	private synchronized void checkClassPath() {
+		long version = classPathVersion();
+		if (version != classPathVersion) {
+			docs.clear();
+			classPathVersion = version;
+			warmedUp = false;
+		}
+	}
+
+	/**
+	 * The plugin class loaders only add URLs, so the class path version is the
+	 * loader identity and the number of its URLs.
+	 */
+	private long classPathVersion() {
+		long urlCount = 0;
+		if (classLoader instanceof URLClassLoader) {
+			urlCount = ((URLClassLoader) classLoader).getURLs().length;
+		}
+		return ((long) System.identityHashCode(classLoader) << 32) | urlCount;
+	}
+
+	/**
+	 * Returns the names of the processors in the package of
+	 * {@link BaseProcessor}, which can be resolved by
+	 * {@link Processor#getFullClassName(String)}.
+	 */
+	Set<String> findProcessorNames() {
+		String packageName = BaseProcessor.class.getPackage().getName();
+		String path = packageName.replace('.', '/');
+		Set<String> classNames = new TreeSet<>();
+		try {
+			Enumeration<URL> resources = classLoader.getResources(path);
+			while (resources.hasMoreElements()) {
+				URL url = resources.nextElement();
+				if ("file".equals(url.getProtocol())) {
+					String[] files = new File(URLDecoder.decode(url.getFile(), StandardCharsets.UTF_8.name())).list();
+					if (files != null) {
+						for (String file : files) {
+							addClassName(classNames, file);
+						}
+					}
+				} else {
+					URLConnection connection = url.openConnection();
+					if (connection instanceof JarURLConnection) {
+						JarFile jarFile = ((JarURLConnection) connection).getJarFile();
+						Enumeration<JarEntry> entries = jarFile.entries();
+						while (entries.hasMoreElements()) {
+							String name = entries.nextElement().getName();
+							if (name.startsWith(path + "/")) {
+								addClassName(classNames, name.substring(path.length() + 1));
+							}
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			// The warm-up is optional, the documentation is rendered on demand.
+		}
+
+		Set<String> processorNames = new TreeSet<>();
+		for (String className : classNames) {
+			if (isProcessor(packageName, className)) {
+				processorNames.add(className);
+			}
+		}
+		return processorNames;
+	}
+
+	private static void addClassName(Set<String> classNames, String fileName) {
+		if (fileName.endsWith(CLASS_EXTENSION) && fileName.indexOf('/') < 0 && fileName.indexOf('$') < 0) {
+			classNames.add(StringUtils.removeEnd(fileName, CLASS_EXTENSION));
+		}
+	}
+
+	private boolean isProcessor(String packageName, String name) {
+		String fullClassName = Processor.getFullClassName(name);
+		if (!StringUtils.equals(fullClassName, packageName + "." + name)) {
+			return false;
+		}
+		try {
+			Class<?> processorClass = Class.forName(fullClassName, false, classLoader);
+			return BaseProcessor.class.isAssignableFrom(processorClass)
+					&& !Modifier.isAbstract(processorClass.getModifiers());
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+}
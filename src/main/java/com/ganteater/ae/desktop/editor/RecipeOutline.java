@@ -0,0 +1,336 @@
+package com.ganteater.ae.desktop.editor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+
+/**
+ * Lightweight outline of the recipe in the editor: the Extern processor
+ * classes, the Function names and the used variables. The outline is updated
+ * from the document events. Only the edited lines are scanned, and the scan
+ * continues to the next lines while the edit changes their start state, e.g.
+ * when a comment or a tag is opened or closed.
+ */
+public class RecipeOutline implements DocumentListener {
+
+	private static final Pattern ATTRIBUTE = Pattern.compile("([\\w:.-]+)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+	private static final Pattern VARIABLE = Pattern.compile("\\$var\\{([^}]+)\\}");
+
+	private enum State {
+		TEXT, TAG, COMMENT, CDATA
+	}
+
+	private Document document;
+	private final List<Line> lines = new ArrayList<>();
+
+	private final Map<String, Integer> externClasses = new HashMap<>();
+	private final Map<String, Integer> functions = new HashMap<>();
+	private final Map<String, Integer> variables = new HashMap<>();
+
+	private long version;
+	private Snapshot snapshot;
+
+	private StringBuilder tag;
+	private int tagLine;
+	private char quote;
+
+	public RecipeOutline(Document document) {
+		attach(document);
+	}
+
+	/**
+	 * Starts to follow the document, the whole document is scanned once.
+	 */
+	public synchronized void attach(Document document) {
+		if (this.document != null) {
+			this.document.removeDocumentListener(this);
+		}
+		this.document = document;
+		document.addDocumentListener(this);
+
+		lines.clear();
+		externClasses.clear();
+		functions.clear();
+		variables.clear();
+		document.render(() -> {
+			int count = root().getElementCount();
+			for (int i = 0; i < count; i++) {
+				lines.add(new Line());
+			}
+			scan(0, count - 1);
+		});
+		version++;
+	}
+
+	@Override
+	public synchronized void insertUpdate(DocumentEvent e) {
+		int first = root().getElementIndex(e.getOffset());
+		int added = root().getElementCount() - lines.size();
+		for (int i = 0; i < added; i++) {
+			lines.add(first + 1, new Line());
+		}
+		scan(first, first + added);
+		version++;
+	}
+
+	@Override
+	public synchronized void removeUpdate(DocumentEvent e) {
+		int first = root().getElementIndex(e.getOffset());
+		int removed = lines.size() - root().getElementCount();
+		for (int i = 0; i < removed; i++) {
+			uncount(lines.remove(first + 1));
+		}
+		scan(first, first);
+		version++;
+	}
+
+	@Override
+	public void changedUpdate(DocumentEvent e) {
+		// Attribute changes do not affect the outline.
+	}
+
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	public Set<String> getExternClasses() {
+		return snapshot().externClasses;
+	}
+
+	public Set<String> getFunctions() {
+		return snapshot().functions;
+	}
+
+	public Set<String> getVariables() {
+		return snapshot().variables;
+	}
+
+	private synchronized Snapshot snapshot() {
+		if (snapshot == null || snapshot.version != version) {
+			snapshot = new Snapshot(version, externClasses, functions, variables);
+		}
+		return snapshot;
+	}
+
+	private Element root() {
+		return document.getDefaultRootElement();
+	}
+
+	private void scan(int from, int to) {
+		int lineIndex = from;
+		while (lineIndex > 0 && lines.get(lineIndex).state == State.TAG) {
+			lineIndex--;
+		}
+
+		State state = lines.get(lineIndex).state;
+		if (state == null || lineIndex == 0) {
+			state = State.TEXT;
+		}
+		tag = null;
+
+		for (; lineIndex < lines.size(); lineIndex++) {
+			Line line = lines.get(lineIndex);
+			State lineState = tag != null ? State.TAG : state;
+			if (lineIndex > to && tag == null && line.state == lineState) {
+				break;
+			}
+
+			uncount(line);
+			line.clear();
+			line.state = lineState;
+			state = scanLine(lineIndex, line, lineText(lineIndex), state);
+		}
+
+		if (tag != null) {
+			parseTag(lines.get(tagLine));
+			tag = null;
+		}
+	}
+
+	private State scanLine(int lineIndex, Line line, String text, State state) {
+		int i = 0;
+		int length = text.length();
+		while (i < length) {
+			int end;
+			switch (state) {
+			case COMMENT:
+				end = text.indexOf("-->", i);
+				if (end < 0) {
+					i = length;
+				} else {
+					i = end + 3;
+					state = State.TEXT;
+				}
+				break;
+
+			case CDATA:
+				end = text.indexOf("]]>", i);
+				addVariables(line, text.substring(i, end < 0 ? length : end));
+				if (end < 0) {
+					i = length;
+				} else {
+					i = end + 3;
+					state = State.TEXT;
+				}
+				break;
+
+			case TAG:
+				for (end = i; end < length; end++) {
+					char c = text.charAt(end);
+					if (quote != 0) {
+						if (c == quote) {
+							quote = 0;
+						}
+					} else if (c == '"' || c == '\'') {
+						quote = c;
+					} else if (c == '>') {
+						break;
+					}
+				}
+				tag.append(text, i, end);
+				if (end < length) {
+					parseTag(lines.get(tagLine));
+					tag = null;
+					state = State.TEXT;
+				}
+				i = end + 1;
+				break;
+
+			default:
+				end = text.indexOf('<', i);
+				addVariables(line, text.substring(i, end < 0 ? length : end));
+				if (end < 0) {
+					i = length;
+				} else if (text.startsWith("<!--", end)) {
+					state = State.COMMENT;
+					i = end + 4;
+				} else if (text.startsWith("<![CDATA[", end)) {
+					state = State.CDATA;
+					i = end + 9;
+				} else {
+					state = State.TAG;
+					tag = new StringBuilder();
+					tagLine = lineIndex;
+					quote = 0;
+					i = end + 1;
+				}
+				break;
+			}
+		}
+
+		if (tag != null) {
+			tag.append('\n');
+		}
+		return state;
+	}
+
+	private void parseTag(Line line) {
+		int nameEnd = 0;
+		while (nameEnd < tag.length() && !Character.isWhitespace(tag.charAt(nameEnd)) && tag.charAt(nameEnd) != '/') {
+			nameEnd++;
+		}
+		String name = tag.substring(0, nameEnd);
+		if (name.isEmpty() || name.charAt(0) == '?' || name.charAt(0) == '!') {
+			return;
+		}
+
+		Matcher attributes = ATTRIBUTE.matcher(tag);
+		attributes.region(nameEnd, tag.length());
+		while (attributes.find()) {
+			String attributeName = attributes.group(1);
+			String value = attributes.group(2) != null ? attributes.group(2) : attributes.group(3);
+			if ("Extern".equals(name) && "class".equals(attributeName)) {
+				line.externClasses = add(line.externClasses, externClasses, value);
+			} else if ("Function".equals(name) && "name".equals(attributeName)) {
+				line.functions = add(line.functions, functions, value);
+			}
+			addVariables(line, value);
+		}
+	}
+
+	private void addVariables(Line line, String text) {
+		if (text.indexOf('$') < 0) {
+			return;
+		}
+		Matcher matcher = VARIABLE.matcher(text);
+		while (matcher.find()) {
+			line.variables = add(line.variables, variables, matcher.group(1));
+		}
+	}
+
+	private static List<String> add(List<String> lineItems, Map<String, Integer> counts, String value) {
+		if (lineItems == null) {
+			lineItems = new ArrayList<>(1);
+		}
+		lineItems.add(value);
+		counts.merge(value, 1, Integer::sum);
+		return lineItems;
+	}
+
+	private void uncount(Line line) {
+		remove(line.externClasses, externClasses);
+		remove(line.functions, functions);
+		remove(line.variables, variables);
+	}
+
+	private static void remove(List<String> lineItems, Map<String, Integer> counts) {
+		if (lineItems != null) {
+			for (String value : lineItems) {
+				counts.computeIfPresent(value, (key, count) -> count > 1 ? count - 1 : null);
+			}
+		}
+	}
+
+	private String lineText(int lineIndex) {
+		Element element = root().getElement(lineIndex);
+		int start = element.getStartOffset();
+		int end = Math.min(element.getEndOffset(), document.getLength());
+		try {
+			String text = document.getText(start, end - start);
+			return text.endsWith("\n") ? text.substring(0, text.length() - 1) : text;
+		} catch (BadLocationException e) {
+			return "";
+		}
+	}
+
+	private static class Line {
+		private State state;
+		private List<String> externClasses;
+		private List<String> functions;
+		private List<String> variables;
+
+		void clear() {
+			externClasses = null;
+			functions = null;
+			variables = null;
+		}
+	}
+
+	private static class Snapshot {
+		private final long version;
+		private final Set<String> externClasses;
+		private final Set<String> functions;
+		private final Set<String> variables;
+
+		Snapshot(long version, Map<String, Integer> externClasses, Map<String, Integer> functions,
+				Map<String, Integer> variables) {
+			this.version = version;
+			this.externClasses = Collections.unmodifiableSet(new TreeSet<>(externClasses.keySet()));
+			this.functions = Collections.unmodifiableSet(new TreeSet<>(functions.keySet()));
+			this.variables = Collections.unmodifiableSet(new TreeSet<>(variables.keySet()));
+		}
+	}
+
+}
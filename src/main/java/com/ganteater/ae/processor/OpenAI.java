@@ -1,13 +1,22 @@
 package com.ganteater.ae.processor;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
@@ -16,14 +25,28 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.ganteater.ae.CommandException;
 import com.ganteater.ae.processor.annotation.CommandDescription;
 import com.ganteater.ae.processor.annotation.CommandExamples;
 import com.ganteater.ae.util.xml.easyparser.Node;
+import com.ganteater.ai.AgentLoop;
+import com.ganteater.ai.AgentLoop.Round;
+import com.ganteater.ai.BatchJob;
+import com.ganteater.ai.ClientRegistry;
+import com.ganteater.ai.ClientRegistry.Settings;
+import com.ganteater.ai.Conversation;
+import com.ganteater.ai.MetricsRegistry;
+import com.ganteater.ai.PromptMetrics;
+import com.ganteater.ai.RateLimiter;
+import com.ganteater.ai.ResponseCache;
+import com.ganteater.ai.Time;
 import com.openai.client.OpenAIClient;
-import com.openai.client.okhttp.OpenAIOkHttpClient;
 import com.openai.core.JsonString;
 import com.openai.core.JsonValue;
+import com.openai.core.http.StreamResponse;
+import com.openai.helpers.ResponseAccumulator;
+import com.openai.models.batches.Batch;
 import com.openai.models.responses.FunctionTool;
 import com.openai.models.responses.FunctionTool.Parameters;
 import com.openai.models.responses.Response;
@@ -36,98 +59,651 @@ import com.openai.models.responses.ResponseInputItem.Message;
 import com.openai.models.responses.ResponseOutputItem;
 import com.openai.models.responses.ResponseOutputMessage;
 import com.openai.models.responses.ResponseOutputMessage.Content;
+import com.openai.models.responses.ResponseStreamEvent;
 import com.openai.models.responses.Tool;
 
 public class OpenAI extends BaseProcessor {
 
 	private static final String DEFAULT_ROLE = "user";
 	private static final String DEFAULT_MODEL_NAME = "gpt-5-mini";
+	private static final String DEFAULT_MAX_CONCURRENCY = "4";
+	private static final long DEFAULT_BATCH_POLL_INTERVAL = 60_000L;
+	private static final String ITEM_MARKER = "\u0000ITEM\u0000";
 	private OpenAIClient client;
+	private OpenAIClient rateLimitedClient;
+	private RateLimiter rateLimiter;
 	private String chatModel;
+	private long maxInputTokens;
 
-	private Map<Tool, Node> toolsMap = new HashMap<>();
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private Map<String, Tool> tools = new LinkedHashMap<>();
+	private Map<String, Node> functions = new HashMap<>();
+	private Map<String, Conversation> conversations = new HashMap<>();
+
+	private BatchJob batch;
+	private Map<String, String> batchTargets;
+
+	private ResponseCache cache;
 
 	@Override
 	@CommandDescription("OpenAI processor supports command to call OpenAI services.")
 	@CommandExamples({
-			"<Extern class='OpenAI'  model='enum:gpt-5|gpt-5-mini' apiKey='type:string'" })
+			"<Extern class='OpenAI'  model='enum:gpt-5|gpt-5-mini' apiKey='type:string'",
+			"<Extern class='OpenAI'  model='enum:gpt-5|gpt-5-mini' apiKey='type:string' cache='type:path' cacheTtl='type:time' cacheMaxSize='type:integer'",
+			"<Extern class='OpenAI'  model='enum:gpt-5|gpt-5-mini' apiKey='type:string' baseUrl='type:url' timeout='type:time' connectTimeout='type:time' "
+					+ "maxRetries='type:integer' poolSize='type:integer' keepAlive='type:time' maxRequestsPerHost='type:integer'",
+			"<Extern class='OpenAI'  model='enum:gpt-5|gpt-5-mini' apiKey='type:string' requestsPerMinute='type:integer' tokensPerMinute='type:integer' rateLimitRetries='type:integer'",
+			"<Extern class='OpenAI'  model='enum:gpt-5|gpt-5-mini' apiKey='type:string' maxInputTokens='type:integer'" })
 	public void init(Processor parentProcessor, Node action) throws CommandException {
 		super.init(parentProcessor, action);
 		chatModel = attr(action, "model", DEFAULT_MODEL_NAME);
+		maxInputTokens = Long.parseLong(attr(action, "maxInputTokens", "0"));
 
 		String apiKey = attr(action, "apiKey");
 		if (StringUtils.isBlank(apiKey)) {
 			throw new CommandException("apiKey is required.", parentProcessor);
 		}
 
-		client = OpenAIOkHttpClient.builder().apiKey(apiKey).build();
+		Settings settings = Settings.fromAttributes(attrName -> attr(action, attrName));
+		client = ClientRegistry.getClient(settings);
+		rateLimitedClient = ClientRegistry.getRateLimitedClient(settings);
+		rateLimiter = ClientRegistry.getRateLimiter(settings);
+
+		String cacheDir = attr(action, "cache");
+		if (StringUtils.isNotBlank(cacheDir)) {
+			long timeToLive = Time.parse(attr(action, "cacheTtl"), 0);
+			long maxSize = parseSize(attr(action, "cacheMaxSize"));
+			try {
+				cache = new ResponseCache(new File(cacheDir), timeToLive, maxSize);
+			} catch (IOException e) {
+				throw new CommandException("Response cache initialization failed: " + e.getMessage(), parentProcessor);
+			}
+		}
 	}
 
-	@CommandDescription("The 'name' attribute is used to define the property name where the response will be stored.")
+	private static long parseSize(String value) {
+		if (StringUtils.isBlank(value)) {
+			return 0;
+		}
+
+		String size = value.trim().toUpperCase();
+		long unit = 1;
+		switch (size.charAt(size.length() - 1)) {
+		case 'K':
+			unit = 1024L;
+			break;
+		case 'M':
+			unit = 1024L * 1024;
+			break;
+		case 'G':
+			unit = 1024L * 1024 * 1024;
+			break;
+		default:
+			return Long.parseLong(size);
+		}
+		return Long.parseLong(size.substring(0, size.length() - 1).trim()) * unit;
+	}
+
+	@CommandDescription("The 'name' attribute is used to define the property name where the response will be stored. "
+			+ "If 'parallelTools' is true, the function tools requested in one response are called concurrently, "
+			+ "each with its own copy of the variables, using up to 'maxConcurrency' threads. "
+			+ "The function outputs are sent back until the model answers without function calls, "
+			+ "at most 'maxSteps' requests (default: 10). "
+			+ "If 'stream' is true, the response text is stored to the property and written to the log as it is generated, "
+			+ "and the optional Delta command is called for every received text fragment. "
+			+ "The 'messages' attribute defines the name of the conversation created by the Messages command. "
+			+ "The latency and token usage of the call are stored to the 'name.usage.*' properties: wallTime, "
+			+ "timeToFirstByte, inputTokens, cachedTokens, outputTokens, reasoningTokens, toolCalls and retries.")
 	@CommandExamples({ "<Prompt name='type:property'>...</Prompt>",
-			"<Prompt name='type:property'><message role='enum:user|system|developer'>...</message></Messages>" })
+			"<Prompt name='type:property'><message role='enum:user|system|developer'>...</message></Messages>",
+			"<Prompt name='type:property' messages='type:string'><message role='enum:user|system|developer'>...</message></Prompt>",
+			"<Prompt name='type:property' parallelTools='enum:true|false' maxConcurrency='type:integer'>...</Prompt>",
+			"<Prompt name='type:property' maxSteps='type:integer'>...</Prompt>",
+			"<Prompt name='type:property' stream='enum:true|false'><message role='enum:user|system|developer'>...</message>"
+					+ "<Delta>...recipe code...</Delta></Prompt>" })
 	public void runCommandPrompt(Node action) throws CommandException {
 		String name = action.getAttribute("name");
-		ArrayList<ResponseInputItem> arrayList = new ArrayList<ResponseInputItem>();
+		boolean parallelTools = Boolean.parseBoolean(attr(action, "parallelTools", "false"));
+		int maxConcurrency = Integer.parseInt(attr(action, "maxConcurrency", DEFAULT_MAX_CONCURRENCY));
+		int maxSteps = Integer.parseInt(attr(action, "maxSteps", String.valueOf(AgentLoop.DEFAULT_MAX_STEPS)));
+		boolean stream = Boolean.parseBoolean(attr(action, "stream", "false"));
+		Node[] deltaNodes = deltaCode(action);
+
+		if (batch != null) {
+			String customId = "request-" + (batch.size() + 1);
+			batch.add(customId, ResponseCreateParams.builder()
+					.model(chatModel)
+					.input(Input.ofResponse(messages(action)))
+					.build());
+			batchTargets.put(customId, name);
+			return;
+		}
+
+		String messagesName = attr(action, "messages");
+		Conversation conversation;
+		if (messagesName != null) {
+			conversation = conversations.get(messagesName);
+			if (conversation == null) {
+				throw new CommandException("Messages not found: " + messagesName, this);
+			}
+		} else {
+			conversation = new Conversation(Boolean.parseBoolean(attr(action, "store", "true")));
+		}
+		conversation.addAll(messages(action));
+
+		ResponseCreateParams params = promptParams(chatModel, tools.values());
+
+		PromptMetrics metrics = new PromptMetrics();
+		AgentLoop loop = new AgentLoop(maxSteps)
+				.maxInputTokens(maxInputTokens)
+				.log(log::warn)
+				.metrics(metrics);
+		try (FunctionDispatcher dispatcher = new FunctionDispatcher(parallelTools, maxConcurrency)) {
+			Response response = loop.run(params, conversation,
+					request -> stream ? createStreaming(request, name, deltaNodes, dispatcher, metrics)
+							: createResponse(request, metrics),
+					dispatcher);
+
+			// The variable is always set, so the recipe does not read the value of a previous call.
+			setVariableValue(name, StringUtils.defaultString(outputText(response)));
+		}
+
+		for (Round round : loop.getRounds()) {
+			log.debug(round);
+		}
+
+		MetricsRegistry.record(name, metrics.finish());
+		if (name != null) {
+			for (Entry<String, Long> value : metrics.values().entrySet()) {
+				setVariableValue(name + ".usage." + value.getKey(), value.getValue());
+			}
+		}
+	}
 
+	/**
+	 * Builds the request parameters of the Prompt command: the model and the
+	 * function tools. The input is set by the conversation for each step of the
+	 * agent loop.
+	 */
+	static ResponseCreateParams promptParams(String model, Collection<Tool> tools) {
+		Builder paramsBuilder = ResponseCreateParams.builder()
+				.model(model);
+
+		if (!tools.isEmpty()) {
+			paramsBuilder.tools(new ArrayList<Tool>(tools));
+		}
+		return paramsBuilder.build();
+	}
+
+	@CommandDescription("Metrics command stores the latency and token usage report of all prompts called by the process "
+			+ "to the 'name' property or writes it to the log. The report contains the count, mean, percentiles and "
+			+ "maximum of each metric per prompt name. If 'reset' is true, the collected metrics are cleared.")
+	@CommandExamples({ "<Metrics />", "<Metrics name='type:property' reset='enum:true|false'/>" })
+	public void runCommandMetrics(Node action) {
+		String name = attr(action, "name");
+		String report = MetricsRegistry.dump();
+		if (name != null) {
+			setVariableValue(name, report);
+		} else {
+			log.info(report);
+		}
+
+		if (Boolean.parseBoolean(attr(action, "reset", "false"))) {
+			MetricsRegistry.reset();
+		}
+	}
+
+	@CommandDescription("Batch command runs the inner recipe code and collects the requests of its Prompt commands "
+			+ "instead of sending them. The requests are written to a JSONL file and sent with the Batch API, "
+			+ "then the batch status is polled every 'pollInterval' and the responses are stored to the properties "
+			+ "of the Prompt commands. The 'name' attribute defines the property for the batch id. "
+			+ "If the batch is not finished within 'timeout', the command fails; the batch can be polled again "
+			+ "by the same Batch command with the 'id' attribute, the requests are not sent again. "
+			+ "Function tools, streaming and conversations are not used by the batched prompts.")
+	@CommandExamples({
+			"<Batch name='type:property' file='type:path' pollInterval='type:time' timeout='type:time'>...recipe code with Prompt commands...</Batch>",
+			"<Batch name='type:property' id='type:string' pollInterval='type:time' timeout='type:time'>...recipe code with Prompt commands...</Batch>" })
+	public void runCommandBatch(Node action) throws CommandException {
+		if (batch != null) {
+			throw new CommandException("Nested Batch command is not supported.", this);
+		}
+
+		BatchJob job = new BatchJob(client);
+		Map<String, String> targets = new LinkedHashMap<>();
+		batch = job;
+		batchTargets = targets;
+		try {
+			List<Node> nodes = new ArrayList<>();
+			for (Node node : action) {
+				if (!StringUtils.startsWith(node.getTag(), "$")) {
+					nodes.add(node);
+				}
+			}
+			runNodes(nodes.toArray(new Node[nodes.size()]));
+		} finally {
+			batch = null;
+			batchTargets = null;
+		}
+
+		if (job.size() == 0) {
+			return;
+		}
+
+		long pollInterval = Time.parse(attr(action, "pollInterval"), DEFAULT_BATCH_POLL_INTERVAL);
+		long timeout = Time.parse(attr(action, "timeout"), 0);
+		try {
+			String batchId = attr(action, "id");
+			Batch submitted;
+			if (StringUtils.isNotBlank(batchId)) {
+				// The batch of the previous run is polled, the request ids are the same.
+				submitted = job.retrieve(batchId);
+				log.info("Batch: " + submitted.id() + " resumed, status: " + submitted.status() + ".");
+			} else {
+				String fileName = attr(action, "file");
+				File file;
+				if (StringUtils.isBlank(fileName)) {
+					file = File.createTempFile("batch", ".jsonl");
+					file.deleteOnExit();
+				} else {
+					file = new File(fileName);
+				}
+				job.write(file);
+
+				submitted = job.submit(file);
+				log.info("Batch: " + submitted.id() + " submitted, requests: " + job.size() + ".");
+			}
+			String name = attr(action, "name");
+			if (name != null) {
+				setVariableValue(name, submitted.id());
+			}
+
+			Batch finished = job.await(submitted, pollInterval, timeout,
+					changed -> log.info("Batch: " + changed.id() + " status: " + changed.status()));
+			if (!BatchJob.isFinished(finished)) {
+				throw new CommandException("Batch: " + finished.id() + " is not finished in time, status: "
+						+ finished.status() + ". Set the 'id' attribute to the batch id to continue polling.", this);
+			}
+			if (!Batch.Status.COMPLETED.equals(finished.status())) {
+				throw new CommandException("Batch: " + finished.id() + " is " + finished.status(), this);
+			}
+
+			for (String error : job.errors(finished)) {
+				log.error("Batch request failed: " + error);
+			}
+
+			Map<String, Response> results = job.results(finished);
+			for (Entry<String, String> target : targets.entrySet()) {
+				Response response = results.get(target.getKey());
+				if (response != null) {
+					setVariable(target.getValue(), response);
+				}
+			}
+
+		} catch (IOException e) {
+			throw new CommandException("Batch failed: " + e.getMessage(), this);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CommandException("Batch interrupted.", this);
+		}
+	}
+
+	@CommandDescription("Messages command defines a named conversation. The message tags are added to the conversation, "
+			+ "and the Prompt command with the 'messages' attribute continues it. If 'store' is true (default), "
+			+ "the responses are stored on the server and each Prompt sends only the new messages.")
+	@CommandExamples({
+			"<Messages name='type:string' store='enum:true|false'><message role='enum:system|developer|user'>...</message></Messages>" })
+	public void runCommandMessages(Node action) {
+		String name = attr(action, "name");
+		Conversation conversation = conversations.get(name);
+		if (conversation == null) {
+			conversation = new Conversation(Boolean.parseBoolean(attr(action, "store", "true")));
+			conversations.put(name, conversation);
+		}
+		conversation.addAll(messages(action));
+	}
+
+	private List<ResponseInputItem> messages(Node action) {
+		List<ResponseInputItem> messages = new ArrayList<ResponseInputItem>();
 		for (Node node : action) {
 			switch (node.getTag()) {
 			case "message":
 				String innerText = node.getInnerText();
 				Message message = message(innerText, attr(node, "role", DEFAULT_ROLE));
-				arrayList.add(ResponseInputItem.ofMessage(message));
+				messages.add(ResponseInputItem.ofMessage(message));
 				break;
 
 			case "$Text":
 				innerText = action.getInnerText();
 				message = message(innerText, attr(node, "role", DEFAULT_ROLE));
-				arrayList.add(ResponseInputItem.ofMessage(message));
+				messages.add(ResponseInputItem.ofMessage(message));
 				break;
 
 			default:
 				break;
 			}
 		}
+		return messages;
+	}
 
-		Builder paramsBuilder = ResponseCreateParams.builder()
-				.model(chatModel)
-				.input(Input.ofResponse(arrayList));
+	@CommandDescription("PromptMap command sends the prompt template once for each element of the list property "
+			+ "defined by the 'source' attribute. The current element is available in the template as the property "
+			+ "defined by the 'item' attribute. Up to 'maxConcurrency' requests are sent at the same time. "
+			+ "The responses are stored to the 'name' property as an array in the order of the source elements. "
+			+ "If a request fails, the command fails after all requests are finished, listing the failed elements.")
+	@CommandExamples({
+			"<PromptMap name='type:property' source='type:property' item='type:property' maxConcurrency='type:integer'>"
+					+ "<message role='enum:user|system|developer'>...</message></PromptMap>" })
+	public void runCommandPromptMap(Node action) throws CommandException {
+		String name = attr(action, "name");
+		String itemName = attr(action, "item", "item");
+		int maxConcurrency = Integer.parseInt(attr(action, "maxConcurrency", DEFAULT_MAX_CONCURRENCY));
+		List<String> elements = toList(getVariableValue(attr(action, "source")));
 
-		if (!toolsMap.isEmpty()) {
-			paramsBuilder.tools(new ArrayList<Tool>(toolsMap.keySet()));
+		// The properties are resolved once, only the item reference is substituted per element.
+		Pattern itemPattern = Pattern.compile(Pattern.quote("$var{" + itemName + "}"), Pattern.CASE_INSENSITIVE);
+		List<String[]> templates = new ArrayList<>();
+		for (Node node : action) {
+			String innerText;
+			switch (node.getTag()) {
+			case "message":
+				innerText = node.getInnerText();
+				break;
+			case "$Text":
+				innerText = action.getInnerText();
+				break;
+			default:
+				continue;
+			}
+			String template = itemPattern.matcher(innerText).replaceAll(Matcher.quoteReplacement(ITEM_MARKER));
+			templates.add(new String[] { attr(node, "role", DEFAULT_ROLE), replaceProperties(template) });
 		}
 
-		Response response = client.responses().create(paramsBuilder.build());
+		String[] results = new String[elements.size()];
+		List<Integer> failed = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(maxConcurrency, results.length)));
+		try {
+			List<Future<String>> futures = new ArrayList<>();
+			for (String element : elements) {
+				futures.add(executor.submit(() -> {
+					List<ResponseInputItem> inputs = new ArrayList<>();
+					for (String[] template : templates) {
+						String text = StringUtils.replace(template[1], ITEM_MARKER, element);
+						inputs.add(ResponseInputItem.ofMessage(inputMessage(text, template[0])));
+					}
 
-		List<ResponseInputItem> inputs = new ArrayList<>();
-		response.output().forEach(item -> {
-			if (item.isFunctionCall()) {
-				ResponseFunctionToolCall functionCall = item.asFunctionCall();
+					ResponseCreateParams params = ResponseCreateParams.builder()
+							.model(chatModel)
+							.input(Input.ofResponse(inputs))
+							.build();
+					PromptMetrics metrics = new PromptMetrics();
+					Response response = createResponse(params, metrics);
+					MetricsRegistry.record(name, metrics.finish());
+					return outputText(response);
+				}));
+			}
 
-				inputs.add(ResponseInputItem.ofFunctionCall(functionCall));
+			for (int i = 0; i < results.length; i++) {
 				try {
-					Object callFunction = ObjectUtils.defaultIfNull(callFunction(functionCall), StringUtils.EMPTY);
-					inputs.add(ResponseInputItem.ofFunctionCallOutput(ResponseInputItem.FunctionCallOutput.builder()
-							.callId(functionCall.callId())
-							.outputAsJson(callFunction)
-							.build()));
-				} catch (CommandException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+					results[i] = futures.get(i).get();
+				} catch (ExecutionException e) {
+					log.error("Prompt failed for the element: " + i, e.getCause());
+					failed.add(i);
+				}
+			}
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CommandException("PromptMap interrupted.", this);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		setVariableValue(name, results);
+		if (!failed.isEmpty()) {
+			throw new CommandException("PromptMap failed for the elements: " + StringUtils.join(failed, ", ")
+					+ " of " + results.length + ", their responses are not set.", this);
+		}
+	}
+
+	private List<String> toList(Object value) {
+		List<String> list = new ArrayList<>();
+		if (value instanceof Object[]) {
+			for (Object element : (Object[]) value) {
+				list.add(ObjectUtils.toString(element));
+			}
+		} else if (value instanceof Collection) {
+			for (Object element : (Collection<?>) value) {
+				list.add(ObjectUtils.toString(element));
+			}
+		} else if (value != null) {
+			list.add(ObjectUtils.toString(value));
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the recipe code of the Delta elements, which is run for each
+	 * received text fragment.
+	 */
+	private Node[] deltaCode(Node action) {
+		List<Node> nodes = new ArrayList<>();
+		for (Node delta : action.getNodes("Delta")) {
+			for (Node node : delta) {
+				if (!StringUtils.startsWith(node.getTag(), "$")) {
+					nodes.add(node);
+				}
+			}
+		}
+		return nodes.toArray(new Node[nodes.size()]);
+	}
+
+	/**
+	 * Sends the request in streaming mode. Complete lines are written to the
+	 * log as they arrive, and function calls are dispatched as soon as their
+	 * output item is done. The text received so far is stored to the property
+	 * for each fragment only if the Delta code is defined, otherwise the text
+	 * is stored once when the stream ends.
+	 */
+	private Response createStreaming(ResponseCreateParams params, String name, Node[] deltaNodes,
+			FunctionDispatcher dispatcher, PromptMetrics metrics) throws CommandException {
+		String cacheKey = cache != null ? cache.key(params) : null;
+		if (cacheKey != null) {
+			Response response = cache.get(cacheKey);
+			if (response != null) {
+				String text = outputText(response);
+				if (text != null) {
+					replay(text, name, deltaNodes);
+				}
+				return response;
+			}
+		}
+
+		ResponseAccumulator accumulator = ResponseAccumulator.create();
+		StringBuilder text = new StringBuilder();
+		int loggedLength = 0;
+
+		long estimatedTokens = RateLimiter.estimateTokens(params);
+		try (StreamResponse<ResponseStreamEvent> streamResponse = rateLimiter.execute(estimatedTokens,
+				() -> rateLimitedClient.responses().withRawResponse().createStreaming(params), metrics)) {
+			Iterator<ResponseStreamEvent> events = streamResponse.stream().iterator();
+			while (events.hasNext()) {
+				ResponseStreamEvent event = accumulator.accumulate(events.next());
+
+				if (event.isOutputTextDelta()) {
+					String delta = event.asOutputTextDelta().delta();
+					text.append(delta);
+
+					if (delta.indexOf('\n') >= 0) {
+						int lineEnd = text.lastIndexOf("\n");
+						log.info(text.substring(loggedLength, lineEnd));
+						loggedLength = lineEnd + 1;
+					}
+
+					// The text so far is copied only for the Delta code, otherwise it is stored once.
+					if (deltaNodes.length > 0) {
+						setVariableValue(name, text.toString());
+						runNodes(deltaNodes);
+					}
+				}
+
+				if (event.isOutputItemDone()) {
+					ResponseOutputItem item = event.asOutputItemDone().item();
+					if (item.isFunctionCall()) {
+						dispatcher.submit(item.asFunctionCall());
+					}
 				}
 			}
-			if (item.isReasoning()) {
-				ResponseInputItem reasoning = ResponseInputItem.ofReasoning(item.asReasoning());
-				inputs.add(reasoning);
+		}
+
+		if (loggedLength < text.length()) {
+			log.info(text.substring(loggedLength));
+		}
+		if (text.length() > 0) {
+			setVariableValue(name, text.toString());
+		}
+
+		Response response = accumulator.response();
+		rateLimiter.complete(estimatedTokens, response);
+		metrics.usage(response);
+		if (cacheKey != null) {
+			cachePut(cacheKey, response);
+			log.debug(cache);
+		}
+		return response;
+	}
+
+	/**
+	 * Passes the cached response text to the Delta code line by line, as the
+	 * fragments of a stream. The function calls of the cached response are
+	 * run by the tool loop.
+	 */
+	private void replay(String text, String name, Node[] deltaNodes) throws CommandException {
+		int start = 0;
+		while (start < text.length()) {
+			int end = text.indexOf('\n', start);
+			end = end < 0 ? text.length() : end + 1;
+			log.info(StringUtils.removeEnd(text.substring(start, end), "\n"));
+			if (deltaNodes.length > 0) {
+				setVariableValue(name, text.substring(0, end));
+				runNodes(deltaNodes);
 			}
-		});
+			start = end;
+		}
+		setVariableValue(name, text);
+	}
 
-		if (!inputs.isEmpty()) {
-			paramsBuilder.input(ResponseCreateParams.Input.ofResponse(inputs));
-			response = client.responses().create(paramsBuilder.build());
+	/**
+	 * Sends the request, the response is taken from the response cache if
+	 * the cache is enabled and contains the same request.
+	 */
+	private Response createResponse(ResponseCreateParams params, PromptMetrics metrics) {
+		if (cache == null) {
+			return execute(params, metrics);
 		}
 
-		setVariable(name, response);
+		String key = cache.key(params);
+		Response response = cache.get(key);
+		if (response == null) {
+			response = execute(params, metrics);
+			cachePut(key, response);
+		}
+		log.debug(cache);
+		return response;
+	}
+
+	/**
+	 * Stores the response to the cache. The response is already paid, so a
+	 * write failure of the optional cache does not fail the command.
+	 */
+	private void cachePut(String key, Response response) {
+		try {
+			cache.put(key, response);
+		} catch (IOException e) {
+			log.warn("Response cache write failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Sends the request paced by the rate limiter shared by all users of the API
+	 * key. Throttled requests are retried with backoff. The token usage is
+	 * recorded to the metrics, cached responses do not count.
+	 */
+	private Response execute(ResponseCreateParams params, PromptMetrics metrics) {
+		long estimatedTokens = RateLimiter.estimateTokens(params);
+		Response response = rateLimiter.execute(estimatedTokens,
+				() -> rateLimitedClient.responses().withRawResponse().create(params), metrics);
+		rateLimiter.complete(estimatedTokens, response);
+		metrics.usage(response);
+		return response;
+	}
+
+	/**
+	 * Runs the function calls requested by the model. In parallel mode each
+	 * call is started by a thread pool with its own variables as soon as it
+	 * is received, otherwise the call is executed in the processor scope when
+	 * its result is read. The results are read by call, so the outputs keep
+	 * the original call order.
+	 */
+	private class FunctionDispatcher implements AgentLoop.Tools<CommandException>, AutoCloseable {
+
+		private final ExecutorService executor;
+		private final Map<String, Future<Object>> calls = new HashMap<>();
+
+		FunctionDispatcher(boolean parallel, int maxConcurrency) {
+			executor = parallel ? Executors.newFixedThreadPool(Math.max(1, maxConcurrency)) : null;
+		}
+
+		/**
+		 * Starts the call in parallel mode. In sequential mode the call is
+		 * run by {@link #result(ResponseFunctionToolCall)}, so a slow Task
+		 * does not hold the response stream open.
+		 */
+		@Override
+		public void submit(ResponseFunctionToolCall functionCall) throws CommandException {
+			if (executor == null || calls.containsKey(functionCall.callId())) {
+				return;
+			}
+
+			Processor scope = createFunctionScope(function(functionCall));
+			calls.put(functionCall.callId(), executor.submit(() -> callFunctionSafely(functionCall, scope)));
+		}
+
+		@Override
+		public Object result(ResponseFunctionToolCall functionCall) throws CommandException {
+			if (executor == null) {
+				function(functionCall);
+				return callFunctionSafely(functionCall, OpenAI.this);
+			}
+
+			submit(functionCall);
+			try {
+				return calls.get(functionCall.callId()).get();
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CommandException("Function call interrupted: " + functionCall.name(), OpenAI.this);
+			} catch (ExecutionException e) {
+				throw new CommandException("Function call failed: " + functionCall.name() + ", " + e.getCause(),
+						OpenAI.this);
+			}
+		}
+
+		private Node function(ResponseFunctionToolCall functionCall) throws CommandException {
+			Node functionNode = functions.get(functionCall.name());
+			if (functionNode == null) {
+				throw new CommandException("Unknown function requested by the model: " + functionCall.name(),
+						OpenAI.this);
+			}
+			return functionNode;
+		}
+
+		@Override
+		public void close() {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
 	}
 
 	@CommandDescription("Function command to create a function tool. Property tags define the properties of the function tool. "
@@ -139,16 +715,18 @@ public class OpenAI extends BaseProcessor {
 					+ "</Function>" })
 	public void runCommandFunction(Node action) {
 		String name = attr(action, "name");
+		if (functions.get(name) == action) {
+			// The function schema is compiled once, e.g. when the command is called in a loop.
+			return;
+		}
+
 		String description = attr(action, "description");
 		String type = attr(action, "type", "string");
 
 		Node[] props = action.getNodes("property");
 
-		Parameters params = null;
-		ObjectMapper mapper = new ObjectMapper();
-
-		Map<String, Map<String, String>> fromValue = new HashMap<>();
-		ArrayNode requiregProps = mapper.createArrayNode();
+		ObjectNode properties = MAPPER.createObjectNode();
+		ArrayNode requiregProps = MAPPER.createArrayNode();
 		for (Node propNode : props) {
 			String paramName = propNode.getAttribute("name");
 			String paramType = propNode.getAttribute("type");
@@ -157,73 +735,85 @@ public class OpenAI extends BaseProcessor {
 				requiregProps.add(paramName);
 			}
 
-			Map<String, String> value = new HashMap<>();
-			value.put("type", paramType);
-			fromValue.put(paramName, value);
+			properties.putObject(paramName).put("type", paramType);
 		}
 
-		JsonValue propsVal = JsonValue.fromJsonNode(mapper.convertValue(fromValue, JsonNode.class));
-		JsonValue requiredVal = JsonValue.from(requiregProps);
-		params = Parameters.builder()
-				.putAdditionalProperty("properties", propsVal)
+		Parameters params = Parameters.builder()
+				.putAdditionalProperty("properties", JsonValue.fromJsonNode(properties))
 				.putAdditionalProperty("type", JsonString.of(type))
-				.putAdditionalProperty("required", requiredVal)
+				.putAdditionalProperty("required", JsonValue.fromJsonNode(requiregProps))
 				.build();
 
-		com.openai.models.responses.FunctionTool.Builder toolBuilder = FunctionTool.builder()
+		FunctionTool functionTool = FunctionTool.builder()
 				.name(name)
-				.description(description);
+				.description(description)
+				.parameters(params)
+				.strict(false)
+				.build();
 
-		if (params != null) {
-			toolBuilder.parameters(params);
-		}
+		tools.put(name, Tool.ofFunction(functionTool));
+		functions.put(name, action);
+	}
 
-		Tool tool = Tool.ofFunction(toolBuilder.strict(false).build());
-		toolsMap.put(tool, action);
+	/**
+	 * Creates a child processor used to run one function call. The child gets
+	 * its own copy of the variables, so the arguments, the variables set by
+	 * the Task and the return value of concurrent calls are not shared. The
+	 * copy is taken by the recipe thread before the call is started.
+	 */
+	private Processor createFunctionScope(Node functionNode) throws CommandException {
+		Map<String, Object> variables = new HashMap<>(getVariables());
+		BaseProcessor scope = new BaseProcessor();
+		scope.init(this, functionNode);
+		scope.setVariables(variables);
+		return scope;
+	}
+
+	private Object callFunctionSafely(ResponseFunctionToolCall functionCall, Processor scope) {
+		Object result = null;
+		try {
+			result = callFunction(functionCall, scope);
+		} catch (CommandException e) {
+			log.error("Function call failed: " + functionCall.name(), e);
+		}
+		return ObjectUtils.defaultIfNull(result, StringUtils.EMPTY);
 	}
 
-	private Object callFunction(ResponseFunctionToolCall function) throws CommandException {
+	private Object callFunction(ResponseFunctionToolCall function, Processor scope) throws CommandException {
 		String name = function.name();
 		String returnValue = null;
-		Set<Entry<Tool, Node>> toolSet = toolsMap.entrySet();
-		for (Entry<Tool, Node> entry : toolSet) {
-			Tool tool = entry.getKey();
-
-			if (tool.isFunction()) {
-				FunctionTool functionTool = tool.function().get();
-				if (functionTool.name().equals(name)) {
-					Node functionNode = entry.getValue();
-					@SuppressWarnings("unchecked")
-					ObjectMapper mapper = new ObjectMapper();
-					try {
-						JsonNode args = mapper.readTree(function.arguments());
-						Iterator<String> fieldNames = args.fieldNames();
-						while (fieldNames.hasNext()) {
-							String propName = (String) fieldNames.next();
-							String value = args.get(propName).asText();
-							setVariableValue(propName, value);
-						}
-
-					} catch (JsonProcessingException e) {
-						throw new IllegalArgumentException("Argument parsing failed. Name: " + name, e);
-					}
-
-					runNodes(functionNode.getNodes("Task"));
+		Node functionNode = functions.get(name);
+		if (functionNode == null) {
+			throw new CommandException("Unknown function requested by the model: " + name, this);
+		}
 
-					String returnName = attr(functionNode, "return");
-					if (returnName != null) {
-						returnValue = getVariableString(returnName);
-					}
-					break;
-				}
+		try {
+			Iterator<Entry<String, JsonNode>> args = MAPPER.readTree(function.arguments()).fields();
+			while (args.hasNext()) {
+				Entry<String, JsonNode> arg = args.next();
+				JsonNode value = arg.getValue();
+				scope.setVariableValue(arg.getKey(), value.isValueNode() ? value.asText() : value.toString());
 			}
+
+		} catch (JsonProcessingException e) {
+			throw new IllegalArgumentException("Argument parsing failed. Name: " + name, e);
+		}
+
+		scope.runNodes(functionNode.getNodes("Task"));
+
+		String returnName = attr(functionNode, "return");
+		if (returnName != null) {
+			returnValue = scope.getVariableString(returnName);
 		}
 
 		return returnValue;
 	}
 
 	private Message message(String input, String role) {
-		String text = replaceProperties(input);
+		return inputMessage(replaceProperties(input), role);
+	}
+
+	static Message inputMessage(String text, String role) {
 		Message message = com.openai.models.responses.ResponseInputItem.Message
 				.builder()
 				.role(com.openai.models.responses.ResponseInputItem.Message.Role.of(role))
@@ -233,16 +823,22 @@ public class OpenAI extends BaseProcessor {
 	}
 
 	private void setVariable(String name, Response response) {
+		String responseText = outputText(response);
+		if (responseText != null) {
+			setVariableValue(name, responseText);
+		}
+	}
+
+	private static String outputText(Response response) {
 		List<ResponseOutputItem> output = response.output();
 		for (ResponseOutputItem responseOutputItem : output) {
 			Optional<ResponseOutputMessage> messageOpt = responseOutputItem.message();
 			if (messageOpt.isPresent()) {
 				Content content = messageOpt.get().content().get(0);
-				String responseText = content.outputText().get().text();
-				setVariableValue(name, responseText);
-				break;
+				return content.outputText().get().text();
 			}
 		}
+		return null;
 	}
 
 }
@@ -0,0 +1,266 @@
+package com.ganteater.ai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.openai.errors.BadRequestException;
+import com.openai.errors.NotFoundException;
+import com.openai.errors.OpenAIServiceException;
+import com.openai.models.responses.Response;
+import com.openai.models.responses.ResponseCreateParams;
+import com.openai.models.responses.ResponseFunctionToolCall;
+import com.openai.models.responses.ResponseInputItem;
+import com.openai.models.responses.ResponseOutputItem;
+import com.openai.models.responses.ToolChoiceOptions;
+
+/**
+ * Multi-step tool loop. The conversation is sent, the function calls of the
+ * response are executed and their outputs are sent in the next round, until
+ * the model answers without function calls or the step limit is reached. When
+ * the previous response is stored on the server, each round sends only the
+ * new items. The latency of each round is recorded: the request time and the
+ * time of the function calls.
+ */
+public class AgentLoop {
+
+	public static final int DEFAULT_MAX_STEPS = 10;
+
+	private static final String PREVIOUS_RESPONSE_ID = "previous_response_id";
+	private static final String STEP_LIMIT_OUTPUT = "The function is not called: the step limit is reached.";
+
+	/**
+	 * Sends one request, e.g. in the streaming mode or through the cache.
+	 */
+	@FunctionalInterface
+	public interface Requester<E extends Exception> {
+		Response send(ResponseCreateParams params) throws E;
+	}
+
+	/**
+	 * Executes the function calls of the model.
+	 */
+	@FunctionalInterface
+	public interface Tools<E extends Exception> {
+
+		/**
+		 * Starts the call, e.g. in a thread pool. All calls of a response are
+		 * submitted before the first result is read.
+		 */
+		default void submit(ResponseFunctionToolCall functionCall) throws E {
+		}
+
+		/**
+		 * Returns the result of the call, which is sent to the model as JSON.
+		 */
+		Object result(ResponseFunctionToolCall functionCall) throws E;
+	}
+
+	private final int maxSteps;
+	private long maxInputTokens;
+	private Consumer<String> log = message -> {
+	};
+	private PromptMetrics metrics;
+	private final List<Round> rounds = new ArrayList<>();
+
+	public AgentLoop(int maxSteps) {
+		this.maxSteps = Math.max(1, maxSteps);
+	}
+
+	/**
+	 * Sets the input token budget of the conversation history, 0 - no limit.
+	 */
+	public AgentLoop maxInputTokens(long maxInputTokens) {
+		this.maxInputTokens = maxInputTokens;
+		return this;
+	}
+
+	/**
+	 * Sets the receiver of the warnings: the step limit, the history changes.
+	 */
+	public AgentLoop log(Consumer<String> log) {
+		this.log = log;
+		return this;
+	}
+
+	public AgentLoop metrics(PromptMetrics metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+
+	/**
+	 * Runs the rounds and returns the last response. The request of the last
+	 * allowed step does not allow function calls, so the model answers with
+	 * text. If it still requests functions, the calls are answered without
+	 * calling them, so the conversation can be continued.
+	 */
+	public <E extends Exception> Response run(ResponseCreateParams params, Conversation conversation,
+			Requester<E> requester, Tools<E> tools) throws E {
+		for (int step = 1;; step++) {
+			long start = System.nanoTime();
+			boolean lastStep = step >= maxSteps;
+			if (lastStep && step > 1 && hasTools(params)) {
+				log.accept("The step limit " + maxSteps + " is reached, the last request does not allow function calls.");
+			}
+			Response response = send(lastStep ? withoutFunctionCalls(params) : params, conversation, requester);
+			Round round = new Round(step, response, System.nanoTime() - start);
+			rounds.add(round);
+
+			List<ResponseFunctionToolCall> functionCalls = new ArrayList<>();
+			for (ResponseOutputItem item : response.output()) {
+				if (item.isFunctionCall()) {
+					functionCalls.add(item.asFunctionCall());
+				}
+			}
+			round.toolCalls = functionCalls.size();
+			if (functionCalls.isEmpty()) {
+				return response;
+			}
+
+			if (lastStep) {
+				log.accept("The step limit " + maxSteps + " is reached, " + functionCalls.size()
+						+ " function calls are not executed.");
+				for (ResponseFunctionToolCall functionCall : functionCalls) {
+					conversation.add(output(functionCall, STEP_LIMIT_OUTPUT));
+				}
+				return response;
+			}
+
+			long toolStart = System.nanoTime();
+			for (ResponseFunctionToolCall functionCall : functionCalls) {
+				tools.submit(functionCall);
+			}
+			for (ResponseFunctionToolCall functionCall : functionCalls) {
+				if (metrics != null) {
+					metrics.toolCall();
+				}
+				conversation.add(output(functionCall, tools.result(functionCall)));
+			}
+			round.toolTime = System.nanoTime() - toolStart;
+		}
+	}
+
+	private static boolean hasTools(ResponseCreateParams params) {
+		return params.tools().map(tools -> !tools.isEmpty()).orElse(false);
+	}
+
+	private static ResponseCreateParams withoutFunctionCalls(ResponseCreateParams params) {
+		return hasTools(params) ? params.toBuilder().toolChoice(ToolChoiceOptions.NONE).build() : params;
+	}
+
+	public List<Round> getRounds() {
+		return rounds;
+	}
+
+	/**
+	 * Sends the conversation, falling back to the local history if the
+	 * previous response is not available on the server.
+	 */
+	private <E extends Exception> Response send(ResponseCreateParams params, Conversation conversation,
+			Requester<E> requester) throws E {
+		Response response;
+		try {
+			response = sendOnce(params, conversation, requester);
+		} catch (BadRequestException | NotFoundException e) {
+			if (!conversation.isChained() || !isPreviousResponseMissing(e)) {
+				throw e;
+			}
+			log.accept("The previous response is not available, the local history is used: " + e.getMessage());
+			conversation.disableServerState();
+			response = sendOnce(params, conversation, requester);
+		}
+
+		conversation.commit(response);
+		return response;
+	}
+
+	/**
+	 * Checks that the request is rejected because of the previous response id,
+	 * e.g. the stored response is expired or deleted. Other errors, e.g. an
+	 * invalid tool schema, are not fixed by sending the local history.
+	 */
+	private static boolean isPreviousResponseMissing(OpenAIServiceException e) {
+		if (e.param().filter(PREVIOUS_RESPONSE_ID::equals).isPresent()
+				|| e.code().filter(code -> code.startsWith("previous_response")).isPresent()) {
+			return true;
+		}
+		String message = StringUtils.lowerCase(e.getMessage());
+		return StringUtils.contains(message, "previous response") && StringUtils.contains(message, "not found");
+	}
+
+	private <E extends Exception> Response sendOnce(ResponseCreateParams params, Conversation conversation,
+			Requester<E> requester) throws E {
+		ResponseCreateParams.Builder builder = params.toBuilder();
+		ContextBudget budget = new ContextBudget(maxInputTokens);
+		conversation.apply(builder, budget);
+		for (String change : budget.getReport()) {
+			log.accept("Input token budget: " + change);
+		}
+		if (maxInputTokens > 0) {
+			// The history stored on the server is truncated by the server.
+			builder.truncation(ResponseCreateParams.Truncation.AUTO);
+		}
+		return requester.send(builder.build());
+	}
+
+	private static ResponseInputItem output(ResponseFunctionToolCall functionCall, Object result) {
+		return ResponseInputItem.ofFunctionCallOutput(ResponseInputItem.FunctionCallOutput.builder()
+				.callId(functionCall.callId())
+				.outputAsJson(result)
+				.build());
+	}
+
+	/**
+	 * The latency and the token usage of one round.
+	 */
+	public static class Round {
+		private final int step;
+		private final long requestTime;
+		private final long inputTokens;
+		private final long cachedTokens;
+		private final long outputTokens;
+		private long toolTime;
+		private int toolCalls;
+
+		Round(int step, Response response, long requestTime) {
+			this.step = step;
+			this.requestTime = requestTime;
+			this.inputTokens = response.usage().map(usage -> usage.inputTokens()).orElse(0L);
+			this.cachedTokens = response.usage().map(usage -> usage.inputTokensDetails().cachedTokens()).orElse(0L);
+			this.outputTokens = response.usage().map(usage -> usage.outputTokens()).orElse(0L);
+		}
+
+		public int getStep() {
+			return step;
+		}
+
+		/**
+		 * Returns the request time in milliseconds.
+		 */
+		public long getRequestTime() {
+			return TimeUnit.NANOSECONDS.toMillis(requestTime);
+		}
+
+		/**
+		 * Returns the time of the function calls in milliseconds.
+		 */
+		public long getToolTime() {
+			return TimeUnit.NANOSECONDS.toMillis(toolTime);
+		}
+
+		public int getToolCalls() {
+			return toolCalls;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"Round %1$d: request %2$d ms, %3$d function calls %4$d ms, input: %5$d, cached: %6$d, output: %7$d tokens.",
+					step, getRequestTime(), toolCalls, getToolTime(), inputTokens, cachedTokens, outputTokens);
+		}
+	}
+
+}
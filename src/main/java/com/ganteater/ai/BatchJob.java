@@ -0,0 +1,170 @@
+package com.ganteater.ai;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.openai.client.OpenAIClient;
+import com.openai.core.ObjectMappers;
+import com.openai.core.http.HttpResponse;
+import com.openai.models.batches.Batch;
+import com.openai.models.batches.BatchCreateParams;
+import com.openai.models.files.FileCreateParams;
+import com.openai.models.files.FileObject;
+import com.openai.models.files.FilePurpose;
+import com.openai.models.responses.Response;
+import com.openai.models.responses.ResponseCreateParams;
+
+/**
+ * Offline execution of response requests with the Batch API: the requests are
+ * written to a JSONL file, the file is uploaded and the batch is created, the
+ * batch status is polled, and the results are mapped back to the request ids.
+ */
+public class BatchJob {
+
+	private static final String ENDPOINT = "/v1/responses";
+
+	private final JsonMapper mapper = ObjectMappers.jsonMapper();
+	private final OpenAIClient client;
+	private final Map<String, ResponseCreateParams> requests = new LinkedHashMap<>();
+
+	public BatchJob(OpenAIClient client) {
+		this.client = client;
+	}
+
+	public void add(String customId, ResponseCreateParams params) {
+		requests.put(customId, params);
+	}
+
+	public int size() {
+		return requests.size();
+	}
+
+	public void write(File file) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+			for (Entry<String, ResponseCreateParams> request : requests.entrySet()) {
+				ObjectNode line = mapper.createObjectNode();
+				line.put("custom_id", request.getKey());
+				line.put("method", "POST");
+				line.put("url", ENDPOINT);
+				line.set("body", mapper.valueToTree(request.getValue()._body()));
+				writer.write(mapper.writeValueAsString(line));
+				writer.write('\n');
+			}
+		}
+	}
+
+	public Batch submit(File file) {
+		FileObject inputFile = client.files().create(FileCreateParams.builder()
+				.file(file.toPath())
+				.purpose(FilePurpose.BATCH)
+				.build());
+
+		return client.batches().create(BatchCreateParams.builder()
+				.inputFileId(inputFile.id())
+				.endpoint(BatchCreateParams.Endpoint.V1_RESPONSES)
+				.completionWindow(BatchCreateParams.CompletionWindow._24H)
+				.build());
+	}
+
+	/**
+	 * Returns the batch created before, e.g. to continue polling it.
+	 */
+	public Batch retrieve(String batchId) {
+		return client.batches().retrieve(batchId);
+	}
+
+	/**
+	 * Polls the batch until it is completed, failed, expired or cancelled, or
+	 * until the timeout.
+	 *
+	 * @param listener is called when the batch status is changed.
+	 * @return the last state of the batch, not finished if the timeout is
+	 *         reached.
+	 */
+	public Batch await(Batch batch, long pollInterval, long timeout, Consumer<Batch> listener)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		Batch.Status status = batch.status();
+		while (!isFinished(batch)) {
+			if (timeout > 0 && System.currentTimeMillis() > deadline) {
+				break;
+			}
+
+			Thread.sleep(pollInterval);
+			batch = client.batches().retrieve(batch.id());
+			if (!batch.status().equals(status)) {
+				status = batch.status();
+				listener.accept(batch);
+			}
+		}
+		return batch;
+	}
+
+	public static boolean isFinished(Batch batch) {
+		Batch.Status status = batch.status();
+		return Batch.Status.COMPLETED.equals(status) || Batch.Status.FAILED.equals(status)
+				|| Batch.Status.EXPIRED.equals(status) || Batch.Status.CANCELLED.equals(status);
+	}
+
+	/**
+	 * Returns the successful responses by the request id.
+	 */
+	public Map<String, Response> results(Batch batch) throws IOException {
+		Map<String, Response> results = new HashMap<>();
+		if (batch.outputFileId().isPresent()) {
+			for (JsonNode line : lines(batch.outputFileId().get())) {
+				JsonNode body = line.path("response").path("body");
+				if (body.isObject()) {
+					results.put(line.path("custom_id").asText(), mapper.treeToValue(body, Response.class));
+				}
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the error descriptions of the failed requests.
+	 */
+	public List<String> errors(Batch batch) throws IOException {
+		List<String> errors = new ArrayList<>();
+		if (batch.errorFileId().isPresent()) {
+			for (JsonNode line : lines(batch.errorFileId().get())) {
+				errors.add(line.path("custom_id").asText() + ": " + line.path("error").toString());
+			}
+		}
+		return errors;
+	}
+
+	private List<JsonNode> lines(String fileId) throws IOException {
+		List<JsonNode> lines = new ArrayList<>();
+		try (HttpResponse content = client.files().content(fileId);
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(content.body(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (StringUtils.isNotBlank(line)) {
+					lines.add(mapper.readTree(line));
+				}
+			}
+		}
+		return lines;
+	}
+
+}
@@ -0,0 +1,240 @@
+package com.ganteater.ai;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+
+import com.openai.client.OpenAIClient;
+import com.openai.client.OpenAIClientImpl;
+import com.openai.core.ClientOptions;
+import com.openai.core.Timeout;
+
+/**
+ * Process-wide registry of OpenAI clients. Clients are shared by API key,
+ * base URL and client settings; the HTTP transports are shared by connection
+ * pool settings, so warm keep-alive connections are reused by all processors
+ * and the editor helper.
+ */
+public final class ClientRegistry {
+
+	private static final long DEFAULT_TIMEOUT = Duration.ofMinutes(10).toMillis();
+	private static final long DEFAULT_CONNECT_TIMEOUT = Duration.ofMinutes(1).toMillis();
+	private static final long DEFAULT_KEEP_ALIVE = Duration.ofMinutes(5).toMillis();
+
+	private static final Map<Settings, OpenAIClient> clients = new ConcurrentHashMap<>();
+	private static final Map<Settings, OpenAIClient> rateLimitedClients = new ConcurrentHashMap<>();
+	private static final Map<PoolKey, PooledHttpClient> transports = new ConcurrentHashMap<>();
+	private static final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+
+	private ClientRegistry() {
+	}
+
+	public static OpenAIClient getClient(Settings settings) {
+		return clients.computeIfAbsent(settings, ClientRegistry::createClient);
+	}
+
+	/**
+	 * Returns the client of the requests sent through the rate limiter. The
+	 * rate limiter retries them within the shared limits, so the client does
+	 * not retry: otherwise each attempt would be retried again by the SDK,
+	 * bypassing the limits. The transport is shared with
+	 * {@link #getClient(Settings)}.
+	 */
+	public static OpenAIClient getRateLimitedClient(Settings settings) {
+		return rateLimitedClients.computeIfAbsent(settings,
+				key -> getClient(key).withOptions(options -> options.maxRetries(0)));
+	}
+
+	public static PooledHttpClient getTransport(Settings settings) {
+		return transports.computeIfAbsent(new PoolKey(settings), key -> new PooledHttpClient(
+				settings.maxIdleConnections, settings.keepAlive, settings.maxRequestsPerHost));
+	}
+
+	/**
+	 * Returns the rate limiter shared by all clients of the API key and base
+	 * URL. The limits configured by several users of the key are merged, the
+	 * lowest limit is kept.
+	 */
+	public static RateLimiter getRateLimiter(Settings settings) {
+		String key = settings.apiKey + "@" + StringUtils.defaultString(settings.baseUrl);
+		RateLimiter rateLimiter = rateLimiters.computeIfAbsent(key, k -> new RateLimiter());
+		rateLimiter.setLimits(settings.requestsPerMinute, settings.tokensPerMinute);
+		if (settings.rateLimitRetries >= 0) {
+			rateLimiter.setMaxRetries(settings.rateLimitRetries);
+		}
+		return rateLimiter;
+	}
+
+	private static OpenAIClient createClient(Settings settings) {
+		ClientOptions.Builder options = ClientOptions.builder()
+				.httpClient(getTransport(settings))
+				.apiKey(settings.apiKey)
+				.maxRetries(settings.maxRetries)
+				.timeout(Timeout.builder()
+						.connect(Duration.ofMillis(settings.connectTimeout))
+						.read(Duration.ofMillis(settings.timeout))
+						.write(Duration.ofMillis(settings.timeout))
+						.request(Duration.ofMillis(settings.timeout))
+						.build());
+
+		if (StringUtils.isNotBlank(settings.baseUrl)) {
+			options.baseUrl(settings.baseUrl);
+		}
+
+		return new OpenAIClientImpl(options.build());
+	}
+
+	public static class Settings {
+		private final String apiKey;
+		private String baseUrl;
+		private long timeout = DEFAULT_TIMEOUT;
+		private long connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+		private int maxRetries = 2;
+		private int maxIdleConnections = 5;
+		private long keepAlive = DEFAULT_KEEP_ALIVE;
+		private int maxRequestsPerHost = 5;
+
+		// The rate limits are the settings of the shared rate limiter, not of the client.
+		private long requestsPerMinute;
+		private long tokensPerMinute;
+		private int rateLimitRetries = -1;
+
+		public Settings(String apiKey) {
+			this.apiKey = apiKey;
+		}
+
+		/**
+		 * Creates the settings from the configuration attributes: apiKey, baseUrl,
+		 * timeout, connectTimeout, maxRetries, poolSize, keepAlive,
+		 * maxRequestsPerHost, requestsPerMinute, tokensPerMinute and
+		 * rateLimitRetries.
+		 */
+		public static Settings fromAttributes(UnaryOperator<String> attributes) {
+			Settings settings = new Settings(attributes.apply("apiKey"))
+					.baseUrl(attributes.apply("baseUrl"))
+					.timeout(Time.parse(attributes.apply("timeout"), DEFAULT_TIMEOUT))
+					.connectTimeout(Time.parse(attributes.apply("connectTimeout"), DEFAULT_CONNECT_TIMEOUT))
+					.keepAlive(Time.parse(attributes.apply("keepAlive"), DEFAULT_KEEP_ALIVE));
+
+			String maxRetries = attributes.apply("maxRetries");
+			if (StringUtils.isNotBlank(maxRetries)) {
+				settings.maxRetries(Integer.parseInt(maxRetries));
+			}
+			String poolSize = attributes.apply("poolSize");
+			if (StringUtils.isNotBlank(poolSize)) {
+				settings.maxIdleConnections(Integer.parseInt(poolSize));
+			}
+			String maxRequestsPerHost = attributes.apply("maxRequestsPerHost");
+			if (StringUtils.isNotBlank(maxRequestsPerHost)) {
+				settings.maxRequestsPerHost(Integer.parseInt(maxRequestsPerHost));
+			}
+			String requestsPerMinute = attributes.apply("requestsPerMinute");
+			String tokensPerMinute = attributes.apply("tokensPerMinute");
+			settings.rateLimits(NumberUtils.toLong(requestsPerMinute), NumberUtils.toLong(tokensPerMinute));
+			String rateLimitRetries = attributes.apply("rateLimitRetries");
+			if (StringUtils.isNotBlank(rateLimitRetries)) {
+				settings.rateLimitRetries(Integer.parseInt(rateLimitRetries));
+			}
+			return settings;
+		}
+
+		public Settings baseUrl(String baseUrl) {
+			this.baseUrl = baseUrl;
+			return this;
+		}
+
+		public Settings timeout(long timeout) {
+			this.timeout = timeout;
+			return this;
+		}
+
+		public Settings connectTimeout(long connectTimeout) {
+			this.connectTimeout = connectTimeout;
+			return this;
+		}
+
+		public Settings maxRetries(int maxRetries) {
+			this.maxRetries = maxRetries;
+			return this;
+		}
+
+		public Settings maxIdleConnections(int maxIdleConnections) {
+			this.maxIdleConnections = maxIdleConnections;
+			return this;
+		}
+
+		public Settings keepAlive(long keepAlive) {
+			this.keepAlive = keepAlive;
+			return this;
+		}
+
+		public Settings maxRequestsPerHost(int maxRequestsPerHost) {
+			this.maxRequestsPerHost = maxRequestsPerHost;
+			return this;
+		}
+
+		public Settings rateLimits(long requestsPerMinute, long tokensPerMinute) {
+			this.requestsPerMinute = requestsPerMinute;
+			this.tokensPerMinute = tokensPerMinute;
+			return this;
+		}
+
+		public Settings rateLimitRetries(int rateLimitRetries) {
+			this.rateLimitRetries = rateLimitRetries;
+			return this;
+		}
+
+		public String getApiKey() {
+			return apiKey;
+		}
+
+		public String getBaseUrl() {
+			return baseUrl;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(apiKey, baseUrl, timeout, connectTimeout, maxRetries, maxIdleConnections, keepAlive,
+					maxRequestsPerHost);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Settings)) {
+				return false;
+			}
+			Settings other = (Settings) obj;
+			return Objects.equals(apiKey, other.apiKey) && Objects.equals(baseUrl, other.baseUrl)
+					&& timeout == other.timeout && connectTimeout == other.connectTimeout
+					&& maxRetries == other.maxRetries && new PoolKey(this).equals(new PoolKey(other));
+		}
+	}
+
+	private static class PoolKey {
+		private final long[] values;
+
+		PoolKey(Settings settings) {
+			values = new long[] { settings.maxIdleConnections, settings.keepAlive, settings.maxRequestsPerHost };
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(values);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof PoolKey && Arrays.equals(values, ((PoolKey) obj).values);
+		}
+	}
+
+}
@@ -0,0 +1,233 @@
+package com.ganteater.ai;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.openai.models.responses.ResponseInputItem;
+import com.openai.models.responses.ResponseInputItem.Message;
+
+/**
+ * Assembles the context messages sent before the request input. The blocks
+ * are ordered by their stability, then by name, so the same configuration
+ * always produces the same prefix, independent of the order in which the
+ * blocks were added. A stable prefix is reused by the server prompt cache.
+ * <p>
+ * Only the processor blocks relevant to the request are sent. The size of the
+ * blocks is accounted in tokens, and when it exceeds the limit the least
+ * recently used processor blocks are evicted.
+ */
+public class ContextAssembler {
+
+	private static final String CACHE_KEY_PREFIX = "ae-";
+	private static final int CACHE_KEY_BYTES = 12;
+
+	/**
+	 * The context block stability, from the least to the most frequently
+	 * changing content.
+	 */
+	public enum Stability {
+		GENERAL, ENVIRONMENT, PROCESSOR
+	}
+
+	private static final Comparator<Block> ORDER = Comparator.comparing((Block block) -> block.stability)
+			.thenComparing(block -> block.name);
+
+	private final Map<String, Block> blocks = new HashMap<>();
+	private final long maxTokens;
+	private List<Block> ordered;
+	private long tokenCount;
+	private long useCount;
+
+	/**
+	 * @param maxTokens the limit of the stored blocks size, the general and
+	 *                  the environment blocks are never evicted.
+	 */
+	public ContextAssembler(long maxTokens) {
+		this.maxTokens = maxTokens;
+	}
+
+	public synchronized void put(String name, Stability stability, String text) {
+		Block block = blocks.get(name);
+		if (block == null || block.stability != stability || !block.text.equals(text)) {
+			remove(name);
+			Block newBlock = new Block(name, stability, text);
+			newBlock.lastUse = ++useCount;
+			blocks.put(name, newBlock);
+			tokenCount += newBlock.tokens;
+			ordered = null;
+			evict(name);
+		}
+	}
+
+	public synchronized boolean contains(String name) {
+		return blocks.containsKey(name);
+	}
+
+	/**
+	 * Returns the context messages in the deterministic order: the general and
+	 * the environment blocks, and the blocks of the given processors. The
+	 * blocks are fitted into the budget, which should already contain the
+	 * required parts of the request: the environment blocks are truncated or
+	 * removed first, then the processor blocks, then the general ones.
+	 */
+	public synchronized List<ResponseInputItem> inputs(Collection<String> processorNames, ContextBudget budget) {
+		List<Block> selected = select(processorNames);
+		List<ContextBudget.Part> parts = new ArrayList<>();
+		for (Block block : selected) {
+			parts.add(budget.add(block.name, priority(block.stability), block.text));
+		}
+		budget.fit();
+
+		List<ResponseInputItem> inputs = new ArrayList<>();
+		long use = ++useCount;
+		for (int i = 0; i < selected.size(); i++) {
+			Block block = selected.get(i);
+			ContextBudget.Part part = parts.get(i);
+			block.lastUse = use;
+			if (part.isTruncated()) {
+				inputs.add(message(part.getText()));
+			} else if (!part.isRemoved()) {
+				inputs.add(block.input);
+			}
+		}
+		return inputs;
+	}
+
+	/**
+	 * Returns the context texts in the same order as
+	 * {@link #inputs(Collection, ContextBudget)}.
+	 */
+	public synchronized List<String> texts(Collection<String> processorNames) {
+		List<String> texts = new ArrayList<>();
+		for (Block block : select(processorNames)) {
+			texts.add(block.text);
+		}
+		return texts;
+	}
+
+	/**
+	 * Returns the estimated size of the stored blocks.
+	 */
+	public synchronized long getTokenCount() {
+		return tokenCount;
+	}
+
+	/**
+	 * Returns the prompt cache key of the configuration: the model and the
+	 * blocks which do not depend on the edited recipe. Requests with the same
+	 * key are routed to the same prompt cache.
+	 */
+	public synchronized String promptCacheKey(String model) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(model.getBytes(StandardCharsets.UTF_8));
+			for (Block block : ordered()) {
+				if (block.stability != Stability.PROCESSOR) {
+					digest.update((byte) 0);
+					digest.update(block.text.getBytes(StandardCharsets.UTF_8));
+				}
+			}
+
+			byte[] hash = digest.digest();
+			StringBuilder key = new StringBuilder(CACHE_KEY_PREFIX);
+			for (int i = 0; i < CACHE_KEY_BYTES; i++) {
+				key.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+			}
+			return key.toString();
+
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Prompt cache key calculation failed.", e);
+		}
+	}
+
+	private static int priority(Stability stability) {
+		switch (stability) {
+		case ENVIRONMENT:
+			return 1;
+		case PROCESSOR:
+			return 2;
+		default:
+			return 3;
+		}
+	}
+
+	private static ResponseInputItem message(String text) {
+		return ResponseInputItem.ofMessage(Message.builder()
+				.role(Message.Role.USER)
+				.addInputTextContent(text)
+				.build());
+	}
+
+	private List<Block> select(Collection<String> processorNames) {
+		List<Block> selected = new ArrayList<>();
+		for (Block block : ordered()) {
+			if (block.stability != Stability.PROCESSOR || processorNames.contains(block.name)) {
+				selected.add(block);
+			}
+		}
+		return selected;
+	}
+
+	private void remove(String name) {
+		Block block = blocks.remove(name);
+		if (block != null) {
+			tokenCount -= block.tokens;
+			ordered = null;
+		}
+	}
+
+	/**
+	 * Removes the least recently used processor blocks, except the given one,
+	 * while the size exceeds the limit.
+	 */
+	private void evict(String keptName) {
+		while (tokenCount > maxTokens) {
+			Block oldest = null;
+			for (Block block : blocks.values()) {
+				if (block.stability == Stability.PROCESSOR && !block.name.equals(keptName)
+						&& (oldest == null || block.lastUse < oldest.lastUse)) {
+					oldest = block;
+				}
+			}
+			if (oldest == null) {
+				break;
+			}
+			remove(oldest.name);
+		}
+	}
+
+	private List<Block> ordered() {
+		if (ordered == null) {
+			List<Block> list = new ArrayList<>(blocks.values());
+			Collections.sort(list, ORDER);
+			ordered = list;
+		}
+		return ordered;
+	}
+
+	private static class Block {
+		private final String name;
+		private final Stability stability;
+		private final String text;
+		private final ResponseInputItem input;
+		private final long tokens;
+		private long lastUse;
+
+		Block(String name, Stability stability, String text) {
+			this.name = name;
+			this.stability = stability;
+			this.text = text;
+			this.tokens = TokenEstimator.estimate(text);
+			this.input = message(text);
+		}
+	}
+
+}
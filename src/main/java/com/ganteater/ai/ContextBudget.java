@@ -0,0 +1,166 @@
+package com.ganteater.ai;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Fits the parts of a request into the input token budget. Each part is added
+ * with a priority. When the estimated size exceeds the budget, the parts of
+ * the lowest priority are truncated or removed first, and of the parts with
+ * the same priority the later added one goes first. The required parts are
+ * never changed.
+ */
+public class ContextBudget {
+
+	public static final int REQUIRED = Integer.MAX_VALUE;
+
+	private static final long MIN_TRUNCATED_TOKENS = 200;
+	private static final String TRUNCATED = "\n... (truncated)\n";
+
+	private final long maxTokens;
+	private final List<Part> parts = new ArrayList<>();
+	private final List<String> report = new ArrayList<>();
+
+	/**
+	 * @param maxTokens the input token limit, 0 or less for no limit.
+	 */
+	public ContextBudget(long maxTokens) {
+		this.maxTokens = maxTokens > 0 ? maxTokens : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Adds a text part, which can be truncated.
+	 */
+	public Part add(String name, int priority, String text) {
+		Part part = new Part(name, priority, text, TokenEstimator.estimate(text) + TokenEstimator.MESSAGE_OVERHEAD,
+				parts.size());
+		parts.add(part);
+		return part;
+	}
+
+	/**
+	 * Adds a part of the given size, which can only be removed as a whole.
+	 */
+	public Part add(String name, int priority, long tokens) {
+		Part part = new Part(name, priority, null, tokens, parts.size());
+		parts.add(part);
+		return part;
+	}
+
+	/**
+	 * Truncates and removes the parts to fit the budget.
+	 *
+	 * @return the description of the changes, empty if all parts fit.
+	 */
+	public List<String> fit() {
+		long total = getTokenCount();
+		if (total <= maxTokens) {
+			return report;
+		}
+
+		List<Part> candidates = new ArrayList<>();
+		for (Part part : parts) {
+			if (part.priority != REQUIRED && !part.removed) {
+				candidates.add(part);
+			}
+		}
+		candidates.sort(Comparator.comparingInt((Part part) -> part.priority)
+				.thenComparing(Comparator.comparingInt((Part part) -> part.order).reversed()));
+
+		for (Part part : candidates) {
+			if (total <= maxTokens) {
+				break;
+			}
+			long keptTokens = part.tokens - (total - maxTokens);
+			if (part.text != null && keptTokens >= MIN_TRUNCATED_TOKENS) {
+				long tokens = part.tokens;
+				part.truncate(keptTokens);
+				total += part.tokens - tokens;
+				report.add(part.name + " is truncated from " + tokens + " to " + part.tokens + " tokens.");
+			} else {
+				part.removed = true;
+				total -= part.tokens;
+				report.add(part.name + " is removed (" + part.tokens + " tokens).");
+			}
+		}
+
+		if (total > maxTokens) {
+			report.add("The required parts exceed the input token limit: " + total + " > " + maxTokens + ".");
+		}
+		return report;
+	}
+
+	public List<String> getReport() {
+		return report;
+	}
+
+	/**
+	 * Returns the estimated size of the parts which are not removed.
+	 */
+	public long getTokenCount() {
+		long total = 0;
+		for (Part part : parts) {
+			if (!part.removed) {
+				total += part.tokens;
+			}
+		}
+		return total;
+	}
+
+	public static class Part {
+		private final String name;
+		private final int priority;
+		private final int order;
+		private String text;
+		private long tokens;
+		private boolean removed;
+		private boolean truncated;
+
+		Part(String name, int priority, String text, long tokens, int order) {
+			this.name = name;
+			this.priority = priority;
+			this.text = text;
+			this.tokens = tokens;
+			this.order = order;
+		}
+
+		/**
+		 * Cuts the text in proportion to the kept tokens, at a line end if
+		 * possible, until the estimate fits.
+		 */
+		private void truncate(long keptTokens) {
+			String original = text;
+			long originalTokens = tokens;
+			double ratio = (double) keptTokens / originalTokens;
+			do {
+				int length = (int) (original.length() * ratio) - TRUNCATED.length();
+				int lineEnd = original.lastIndexOf('\n', length);
+				if (lineEnd > length / 2) {
+					length = lineEnd;
+				}
+				text = original.substring(0, Math.max(0, length)) + TRUNCATED;
+				tokens = TokenEstimator.estimate(text) + TokenEstimator.MESSAGE_OVERHEAD;
+				ratio *= 0.9;
+			} while (tokens > keptTokens && text.length() > TRUNCATED.length());
+			truncated = true;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public long getTokens() {
+			return tokens;
+		}
+
+		public boolean isRemoved() {
+			return removed;
+		}
+
+		public boolean isTruncated() {
+			return truncated;
+		}
+	}
+
+}
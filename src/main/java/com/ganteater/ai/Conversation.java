@@ -0,0 +1,161 @@
+package com.ganteater.ai;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import com.openai.models.responses.Response;
+import com.openai.models.responses.ResponseCreateParams;
+import com.openai.models.responses.ResponseCreateParams.Input;
+import com.openai.models.responses.ResponseInputItem;
+import com.openai.models.responses.ResponseOutputItem;
+
+/**
+ * The state of a multi-turn conversation. If the responses are stored on the
+ * server, the next request continues the previous response by its id and
+ * sends only the new input items. Otherwise, or if the stored response is not
+ * available, the whole local history is sent.
+ */
+public class Conversation {
+
+	private final boolean store;
+	private boolean serverState;
+	private String previousResponseId;
+
+	private final List<ResponseInputItem> history = new ArrayList<>();
+	private final List<ResponseInputItem> pending = new ArrayList<>();
+
+	public Conversation(boolean store) {
+		this.store = store;
+		this.serverState = store;
+	}
+
+	public synchronized void add(ResponseInputItem item) {
+		pending.add(item);
+	}
+
+	public synchronized void addAll(List<ResponseInputItem> items) {
+		pending.addAll(items);
+	}
+
+	public synchronized boolean isChained() {
+		return serverState && previousResponseId != null;
+	}
+
+	/**
+	 * Sets the input items, the store flag and the previous response id of the
+	 * next request.
+	 */
+	public synchronized void apply(ResponseCreateParams.Builder builder) {
+		apply(builder, new ContextBudget(0));
+	}
+
+	/**
+	 * Sets the input items fitted into the budget: the new items are required,
+	 * the oldest history items are left out first. A function call and its
+	 * output are left out together, so an output is not sent without its call.
+	 */
+	public synchronized void apply(ResponseCreateParams.Builder builder, ContextBudget budget) {
+		List<ResponseInputItem> input = new ArrayList<>();
+		if (isChained()) {
+			builder.previousResponseId(previousResponseId);
+		} else {
+			input.addAll(fitHistory(budget));
+		}
+		input.addAll(pending);
+
+		builder.store(store).input(Input.ofResponse(input));
+	}
+
+	private List<ResponseInputItem> fitHistory(ContextBudget budget) {
+		Set<String> pendingOutputs = new HashSet<>();
+		for (ResponseInputItem item : pending) {
+			budget.add("Input item", ContextBudget.REQUIRED, TokenEstimator.estimate(item));
+			if (item.isFunctionCallOutput()) {
+				pendingOutputs.add(item.asFunctionCallOutput().callId());
+			}
+		}
+		List<ContextBudget.Part> parts = new ArrayList<>();
+		for (int i = 0; i < history.size(); i++) {
+			ResponseInputItem item = history.get(i);
+			// The call of a new function output is required with the output.
+			boolean required = item.isFunctionCall() && pendingOutputs.contains(item.asFunctionCall().callId());
+			parts.add(budget.add("History item " + (i + 1), required ? ContextBudget.REQUIRED : i,
+					TokenEstimator.estimate(item)));
+		}
+		budget.fit();
+
+		Set<String> keptCalls = new HashSet<>();
+		Set<String> keptOutputs = new HashSet<>(pendingOutputs);
+		for (int i = 0; i < history.size(); i++) {
+			ResponseInputItem item = history.get(i);
+			if (parts.get(i).isRemoved()) {
+				continue;
+			}
+			if (item.isFunctionCall()) {
+				keptCalls.add(item.asFunctionCall().callId());
+			} else if (item.isFunctionCallOutput()) {
+				keptOutputs.add(item.asFunctionCallOutput().callId());
+			}
+		}
+
+		// A call or an output left without its pair is removed, as well as a
+		// reasoning item left without the following item of its response.
+		LinkedList<ResponseInputItem> items = new LinkedList<>();
+		boolean nextKept = false;
+		for (int i = history.size() - 1; i >= 0; i--) {
+			ResponseInputItem item = history.get(i);
+			boolean kept = !parts.get(i).isRemoved();
+			if (item.isFunctionCall()) {
+				kept &= keptOutputs.contains(item.asFunctionCall().callId());
+			} else if (item.isFunctionCallOutput()) {
+				kept &= keptCalls.contains(item.asFunctionCallOutput().callId());
+			} else if (item.isReasoning()) {
+				kept &= nextKept;
+			}
+			if (kept) {
+				items.addFirst(item);
+			}
+			nextKept = kept;
+		}
+		return items;
+	}
+
+	/**
+	 * Moves the sent items and the response output to the history.
+	 */
+	public synchronized void commit(Response response) {
+		history.addAll(pending);
+		pending.clear();
+
+		for (ResponseOutputItem item : response.output()) {
+			if (item.isMessage()) {
+				history.add(ResponseInputItem.ofResponseOutputMessage(item.asMessage()));
+			} else if (item.isFunctionCall()) {
+				history.add(ResponseInputItem.ofFunctionCall(item.asFunctionCall()));
+			} else if (item.isReasoning() && store) {
+				history.add(ResponseInputItem.ofReasoning(item.asReasoning()));
+			}
+		}
+		previousResponseId = response.id();
+	}
+
+	/**
+	 * Switches the conversation to the local history, e.g. when the previous
+	 * response is not available on the server.
+	 */
+	public synchronized void disableServerState() {
+		serverState = false;
+	}
+
+	public synchronized List<ResponseInputItem> getHistory() {
+		return new ArrayList<>(history);
+	}
+
+	public synchronized String getPreviousResponseId() {
+		return previousResponseId;
+	}
+
+}
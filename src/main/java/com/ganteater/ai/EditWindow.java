@@ -0,0 +1,184 @@
+package com.ganteater.ai;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The part of a large source sent to the model instead of the whole text: the
+ * selected lines with a number of context lines around them. The tags opened
+ * before the window and not closed in it are collected, so the model knows
+ * where the fragment is located. The edited fragment is spliced back into the
+ * source.
+ */
+public class EditWindow {
+
+	private static final int MAX_TAG_LENGTH = 200;
+
+	private final String source;
+	private final int start;
+	private final int end;
+	private final int firstLine;
+	private final int lastLine;
+	private final int lineCount;
+
+	private EditWindow(String source, int start, int end) {
+		this.source = source;
+		this.start = start;
+		this.end = end;
+		this.firstLine = countLines(source, 0, start) + 1;
+		this.lastLine = firstLine + countLines(source, start, Math.max(start, end - 1));
+		this.lineCount = countLines(source, 0, source.length()) + 1;
+	}
+
+	/**
+	 * Creates the window around the selection, or returns <code>null</code> if
+	 * the window would contain the whole source.
+	 *
+	 * @param contextLines the number of lines before and after the selection.
+	 */
+	public static EditWindow create(String source, int selectionStart, int selectionEnd, int contextLines) {
+		int from = Math.max(0, Math.min(selectionStart, source.length()));
+		int to = Math.max(from, Math.min(selectionEnd, source.length()));
+
+		int start = source.lastIndexOf('\n', from - 1) + 1;
+		for (int i = 0; i < contextLines && start > 0; i++) {
+			start = source.lastIndexOf('\n', start - 2) + 1;
+		}
+
+		int end = to;
+		for (int i = 0; i <= contextLines && end >= 0; i++) {
+			int lineEnd = source.indexOf('\n', end);
+			end = lineEnd < 0 ? -1 : lineEnd + 1;
+		}
+		if (end < 0) {
+			end = source.length();
+		}
+
+		if (start == 0 && end == source.length()) {
+			return null;
+		}
+		return new EditWindow(source, start, end);
+	}
+
+	public String getText() {
+		return source.substring(start, end);
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getFirstLine() {
+		return firstLine;
+	}
+
+	public int getLastLine() {
+		return lastLine;
+	}
+
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * Returns the source with the window replaced by the edited text. The line
+	 * break at the end of the window is kept if the edited text has lost it.
+	 */
+	public String splice(String editedText) {
+		StringBuilder result = new StringBuilder(source.length() - (end - start) + editedText.length() + 1)
+				.append(source, 0, start)
+				.append(editedText);
+		if (end > start && source.charAt(end - 1) == '\n' && !editedText.isEmpty() && !editedText.endsWith("\n")) {
+			result.append('\n');
+		}
+		return result.append(source, end, source.length()).toString();
+	}
+
+	/**
+	 * Returns the start tags opened before the window and not closed before it,
+	 * from the outermost one.
+	 */
+	public List<String> getEnclosingTags() {
+		Deque<String[]> stack = new ArrayDeque<>();
+		int i = 0;
+		while ((i = source.indexOf('<', i)) >= 0 && i < start) {
+			if (source.startsWith("<!--", i)) {
+				i = skip(i, "-->");
+			} else if (source.startsWith("<![CDATA[", i)) {
+				i = skip(i, "]]>");
+			} else {
+				int tagEnd = tagEnd(i);
+				if (tagEnd < 0 || tagEnd >= start) {
+					break;
+				}
+				String tag = source.substring(i, tagEnd + 1);
+				char first = tag.length() > 1 ? tag.charAt(1) : '>';
+				if (first == '/') {
+					String name = tagName(tag, 2);
+					// Unclosed tags are closed by the end tag of their parent.
+					while (!stack.isEmpty()) {
+						if (stack.pop()[0].equals(name)) {
+							break;
+						}
+					}
+				} else if (first != '?' && first != '!' && !tag.endsWith("/>")) {
+					stack.push(new String[] { tagName(tag, 1), tag });
+				}
+				i = tagEnd + 1;
+			}
+		}
+
+		List<String> tags = new ArrayList<>();
+		for (Iterator<String[]> iterator = stack.descendingIterator(); iterator.hasNext();) {
+			String tag = iterator.next()[1].replaceAll("\\s+", " ");
+			if (tag.length() > MAX_TAG_LENGTH) {
+				tag = tag.substring(0, MAX_TAG_LENGTH) + " ...>";
+			}
+			tags.add(tag);
+		}
+		return tags;
+	}
+
+	private int skip(int index, String terminator) {
+		int end = source.indexOf(terminator, index);
+		return end < 0 ? source.length() : end + terminator.length();
+	}
+
+	private int tagEnd(int index) {
+		char quote = 0;
+		for (int i = index + 1; i < source.length(); i++) {
+			char c = source.charAt(i);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+			} else if (c == '>') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String tagName(String tag, int from) {
+		int i = from;
+		while (i < tag.length() && !Character.isWhitespace(tag.charAt(i)) && tag.charAt(i) != '>'
+				&& tag.charAt(i) != '/') {
+			i++;
+		}
+		return tag.substring(from, i);
+	}
+
+	private static int countLines(String text, int from, int to) {
+		int count = 0;
+		for (int i = text.indexOf('\n', from); i >= 0 && i < to; i = text.indexOf('\n', i + 1)) {
+			count++;
+		}
+		return count;
+	}
+
+}
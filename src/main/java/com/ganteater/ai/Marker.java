@@ -1,11 +1,8 @@
 package com.ganteater.ai;
 
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -13,6 +10,8 @@ public enum Marker {
 	CURSOR("Cursor position."), SELECTION_START("Start selection text position."),
 	SELECTION_END("End selection text position.");
 
+	private static final char MARKER_START = '[';
+
 	private String description;
 
 	Marker(String description) {
@@ -36,36 +35,54 @@ public enum Marker {
 		return StringUtils.indexOf(text, toString());
 	}
 
+	/**
+	 * Removes all markers from the code in one pass. The positions of every
+	 * marker occurrence are recorded as offsets in the cleaned text.
+	 */
 	public static MarkerExtractResult extractAll(String code) {
 		Marker[] values = values();
-		Map<Marker, Integer> posMap = new HashMap<Marker, Integer>();
-		for (Marker marker : values) {
-			int pos = code.indexOf(marker.toString());
-			posMap.put(marker, pos);
+		String[] tokens = new String[values.length];
+		for (int i = 0; i < values.length; i++) {
+			tokens[i] = values[i].toString();
 		}
 
-		LinkedHashMap<Marker, Integer> sortedMap = posMap.entrySet().stream().sorted(Map.Entry.comparingByValue())
-				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (oldValue, newValue) -> oldValue,
-						LinkedHashMap::new));
-
-		Map<Marker, Integer> result = new HashMap<Marker, Integer>();
-		Set<Entry<Marker, Integer>> entrySet = sortedMap.entrySet();
-		int correction = 0;
-		for (Entry<Marker, Integer> entry : entrySet) {
-			Integer value = entry.getValue();
-			if (value > 0) {
-				int pos = value - correction;
-				Marker key = entry.getKey();
-				correction = correction + key.toString().length();
-				result.put(key, pos);
+		Map<Marker, int[]> posMap = new EnumMap<>(Marker.class);
+		StringBuilder cleanedText = null;
+		int copied = 0;
+		int index = code.indexOf(MARKER_START);
+		while (index >= 0) {
+			int found = -1;
+			for (int i = 0; i < tokens.length; i++) {
+				if (code.startsWith(tokens[i], index)) {
+					found = i;
+					break;
+				}
+			}
+
+			if (found < 0) {
+				index = code.indexOf(MARKER_START, index + 1);
+				continue;
 			}
+
+			if (cleanedText == null) {
+				cleanedText = new StringBuilder(code.length());
+			}
+			cleanedText.append(code, copied, index);
+			posMap.merge(values[found], new int[] { cleanedText.length() }, Marker::append);
+			copied = index + tokens[found].length();
+			index = code.indexOf(MARKER_START, copied);
 		}
 
-		String cleanedText = code;
-		for (Marker marker : values) {
-			cleanedText = cleanedText.replace(marker.toString(), "");
+		if (cleanedText == null) {
+			return new MarkerExtractResult(code, posMap);
 		}
+		cleanedText.append(code, copied, code.length());
+		return new MarkerExtractResult(cleanedText.toString(), posMap);
+	}
 
-		return new MarkerExtractResult(cleanedText, result);
+	private static int[] append(int[] positions, int[] position) {
+		int[] result = Arrays.copyOf(positions, positions.length + 1);
+		result[positions.length] = position[0];
+		return result;
 	}
 }
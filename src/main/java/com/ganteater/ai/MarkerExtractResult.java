@@ -4,10 +4,12 @@ import java.util.Map;
 
 public class MarkerExtractResult {
 
+	private static final int[] NO_POSITIONS = new int[0];
+
 	String text;
-	Map<Marker, Integer> posMap;
+	Map<Marker, int[]> posMap;
 
-	MarkerExtractResult(String code, Map<Marker, Integer> posMap) {
+	MarkerExtractResult(String code, Map<Marker, int[]> posMap) {
 		super();
 		this.text = code;
 		this.posMap = posMap;
@@ -17,9 +19,21 @@ public class MarkerExtractResult {
 		return text;
 	}
 
+	/**
+	 * Returns the position of the first occurrence of the marker in the text,
+	 * or -1 if the marker is not found.
+	 */
 	public int getPosition(Marker marker) {
-		Integer pos = posMap.get(marker);
-		return pos == null ? -1 : pos;
+		int[] positions = posMap.get(marker);
+		return positions == null ? -1 : positions[0];
+	}
+
+	/**
+	 * Returns the positions of all occurrences of the marker in the text.
+	 */
+	public int[] getPositions(Marker marker) {
+		int[] positions = posMap.get(marker);
+		return positions == null ? NO_POSITIONS : positions.clone();
 	}
 
 }
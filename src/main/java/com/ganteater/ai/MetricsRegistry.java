@@ -0,0 +1,105 @@
+package com.ganteater.ai;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Process-wide registry of prompt metrics. Each metric of each prompt name is
+ * collected in a histogram of the latest samples, the report contains the
+ * count, mean, percentiles and maximum, and the prompt cache hit ratio: the
+ * share of the input tokens served from the prompt cache.
+ */
+public final class MetricsRegistry {
+
+	private static final int MAX_SAMPLES = 10_000;
+	private static final String UNNAMED = "(unnamed)";
+
+	private static final Map<String, Map<String, Histogram>> histograms = new ConcurrentHashMap<>();
+
+	private MetricsRegistry() {
+	}
+
+	public static void record(String name, PromptMetrics metrics) {
+		Map<String, Histogram> promptHistograms = histograms.computeIfAbsent(StringUtils.defaultString(name, UNNAMED),
+				k -> new ConcurrentHashMap<>());
+		for (Entry<String, Long> value : metrics.values().entrySet()) {
+			promptHistograms.computeIfAbsent(value.getKey(), k -> new Histogram()).add(value.getValue());
+		}
+	}
+
+	public static String dump() {
+		StringBuilder report = new StringBuilder();
+		for (Entry<String, Map<String, Histogram>> prompt : new TreeMap<>(histograms).entrySet()) {
+			report.append("# ").append(prompt.getKey()).append("\n");
+			for (Entry<String, Histogram> metric : new TreeMap<>(prompt.getValue()).entrySet()) {
+				report.append(metric.getKey()).append(": ").append(metric.getValue()).append("\n");
+			}
+			report.append(String.format("cacheHitRatio: %1$.2f%n", getCacheHitRatio(prompt.getKey())));
+			report.append("\n");
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Returns the share of the input tokens of the prompt served from the
+	 * prompt cache, 0 if no tokens are recorded.
+	 */
+	public static double getCacheHitRatio(String name) {
+		Map<String, Histogram> promptHistograms = histograms.get(StringUtils.defaultString(name, UNNAMED));
+		if (promptHistograms == null) {
+			return 0;
+		}
+		long inputTokens = sum(promptHistograms.get("inputTokens"));
+		return inputTokens == 0 ? 0 : (double) sum(promptHistograms.get("cachedTokens")) / inputTokens;
+	}
+
+	private static long sum(Histogram histogram) {
+		return histogram == null ? 0 : histogram.getSum();
+	}
+
+	public static void reset() {
+		histograms.clear();
+	}
+
+	private static class Histogram {
+		private final long[] samples = new long[MAX_SAMPLES];
+		private long count;
+		private long sum;
+		private long max;
+
+		synchronized void add(long value) {
+			samples[(int) (count % MAX_SAMPLES)] = value;
+			count++;
+			sum += value;
+			max = Math.max(max, value);
+		}
+
+		synchronized long getSum() {
+			return sum;
+		}
+
+		@Override
+		public synchronized String toString() {
+			int size = (int) Math.min(count, MAX_SAMPLES);
+			long[] sorted = Arrays.copyOf(samples, size);
+			Arrays.sort(sorted);
+			return String.format("count=%1$d, mean=%2$.1f, p50=%3$d, p90=%4$d, p99=%5$d, max=%6$d", count,
+					count == 0 ? 0.0 : (double) sum / count, percentile(sorted, 0.5), percentile(sorted, 0.9),
+					percentile(sorted, 0.99), max);
+		}
+
+		private static long percentile(long[] sorted, double percentile) {
+			if (sorted.length == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(percentile * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+		}
+	}
+
+}
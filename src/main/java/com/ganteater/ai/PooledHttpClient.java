@@ -0,0 +1,210 @@
+package com.ganteater.ai;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.openai.core.RequestOptions;
+import com.openai.core.Timeout;
+import com.openai.core.http.Headers;
+import com.openai.core.http.HttpMethod;
+import com.openai.core.http.HttpRequest;
+import com.openai.core.http.HttpRequestBody;
+import com.openai.core.http.HttpResponse;
+import com.openai.errors.OpenAIIoException;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+
+/**
+ * OkHttp transport for the OpenAI client with a configurable connection pool
+ * and dispatcher. One instance is shared by all clients with the same pool
+ * settings, so keep-alive connections are reused between processors and the
+ * editor helper.
+ */
+public class PooledHttpClient implements com.openai.core.http.HttpClient {
+
+	private final OkHttpClient okHttpClient;
+
+	public PooledHttpClient(int maxIdleConnections, long keepAlive, int maxRequestsPerHost) {
+		Dispatcher dispatcher = new Dispatcher();
+		dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+		dispatcher.setMaxRequests(Math.max(dispatcher.getMaxRequests(), maxRequestsPerHost));
+
+		okHttpClient = new OkHttpClient.Builder()
+				.connectionPool(new ConnectionPool(maxIdleConnections, keepAlive, TimeUnit.MILLISECONDS))
+				.dispatcher(dispatcher)
+				.build();
+	}
+
+	@Override
+	public HttpResponse execute(HttpRequest request, RequestOptions requestOptions) {
+		try {
+			return toResponse(newCall(request, requestOptions).execute());
+		} catch (IOException e) {
+			throw new OpenAIIoException("Request failed", e);
+		} finally {
+			closeBody(request);
+		}
+	}
+
+	@Override
+	public CompletableFuture<HttpResponse> executeAsync(HttpRequest request, RequestOptions requestOptions) {
+		CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+		future.whenComplete((response, error) -> closeBody(request));
+
+		newCall(request, requestOptions).enqueue(new Callback() {
+			@Override
+			public void onResponse(Call call, Response response) {
+				future.complete(toResponse(response));
+			}
+
+			@Override
+			public void onFailure(Call call, IOException e) {
+				future.completeExceptionally(new OpenAIIoException("Request failed", e));
+			}
+		});
+		return future;
+	}
+
+	@Override
+	public void close() {
+		okHttpClient.dispatcher().executorService().shutdown();
+		okHttpClient.connectionPool().evictAll();
+	}
+
+	public int getConnectionCount() {
+		return okHttpClient.connectionPool().connectionCount();
+	}
+
+	public int getIdleConnectionCount() {
+		return okHttpClient.connectionPool().idleConnectionCount();
+	}
+
+	public int getRunningCallsCount() {
+		return okHttpClient.dispatcher().runningCallsCount();
+	}
+
+	private Call newCall(HttpRequest request, RequestOptions requestOptions) {
+		OkHttpClient client = okHttpClient;
+		Timeout timeout = requestOptions.getTimeout();
+		if (timeout != null) {
+			client = okHttpClient.newBuilder()
+					.connectTimeout(timeout.connect())
+					.readTimeout(timeout.read())
+					.writeTimeout(timeout.write())
+					.callTimeout(timeout.request())
+					.build();
+		}
+		return client.newCall(toRequest(request));
+	}
+
+	private static Request toRequest(HttpRequest request) {
+		HttpUrl.Builder url = HttpUrl.get(request.baseUrl()).newBuilder();
+		for (String segment : request.pathSegments()) {
+			url.addPathSegment(segment);
+		}
+		for (String key : request.queryParams().keys()) {
+			for (String value : request.queryParams().values(key)) {
+				url.addQueryParameter(key, value);
+			}
+		}
+
+		RequestBody body = null;
+		if (request.body() != null) {
+			body = toRequestBody(request.body());
+		} else if (requiresBody(request.method())) {
+			body = RequestBody.create(new byte[0], null);
+		}
+
+		Request.Builder builder = new Request.Builder()
+				.url(url.build())
+				.method(request.method().name(), body);
+
+		Headers headers = request.headers();
+		for (String name : headers.names()) {
+			for (String value : headers.values(name)) {
+				builder.addHeader(name, value);
+			}
+		}
+		return builder.build();
+	}
+
+	private static boolean requiresBody(HttpMethod method) {
+		return method == HttpMethod.POST || method == HttpMethod.PUT || method == HttpMethod.PATCH;
+	}
+
+	private static RequestBody toRequestBody(HttpRequestBody body) {
+		MediaType mediaType = body.contentType() == null ? null : MediaType.parse(body.contentType());
+		return new RequestBody() {
+			@Override
+			public MediaType contentType() {
+				return mediaType;
+			}
+
+			@Override
+			public long contentLength() {
+				return body.contentLength();
+			}
+
+			@Override
+			public boolean isOneShot() {
+				return !body.repeatable();
+			}
+
+			@Override
+			public void writeTo(BufferedSink sink) {
+				body.writeTo(sink.outputStream());
+			}
+		};
+	}
+
+	private static HttpResponse toResponse(Response response) {
+		Headers.Builder headers = Headers.builder();
+		for (String name : response.headers().names()) {
+			for (String value : response.headers(name)) {
+				headers.put(name, value);
+			}
+		}
+		Headers responseHeaders = headers.build();
+
+		return new HttpResponse() {
+			@Override
+			public int statusCode() {
+				return response.code();
+			}
+
+			@Override
+			public Headers headers() {
+				return responseHeaders;
+			}
+
+			@Override
+			public InputStream body() {
+				return response.body().byteStream();
+			}
+
+			@Override
+			public void close() {
+				response.close();
+			}
+		};
+	}
+
+	private static void closeBody(HttpRequest request) {
+		if (request.body() != null) {
+			request.body().close();
+		}
+	}
+
+}
@@ -6,6 +6,8 @@ public class Prompt {
 
 	public static final String PARAGRAPH = "\n\n";
 
+	private static final String MARKER_INSTRUCTION = markerInstraction();
+
 	private final String context;
 	private final String instruction;
 	private final String examples;
@@ -13,6 +15,8 @@ public class Prompt {
 	private String hint;
 	private String source;
 	private String sourceType;
+	private int[] markerPositions;
+	private Marker[] markers;
 
 	// Private constructor to enforce usage of the Builder
 	private Prompt(Builder builder) {
@@ -23,6 +27,8 @@ public class Prompt {
 		this.hint = builder.hint;
 		this.source = builder.source;
 		this.sourceType = builder.sourceType;
+		this.markerPositions = builder.markerPositions;
+		this.markers = builder.markers;
 	}
 
 	// Getters
@@ -46,38 +52,99 @@ public class Prompt {
 		return hint;
 	}
 
+	/**
+	 * Returns the source with the cursor and selection markers.
+	 */
 	public String getSource() {
-		return source;
+		if (source == null) {
+			return null;
+		}
+		StringBuilder markedSource = new StringBuilder(source.length() + markersLength());
+		appendSource(markedSource);
+		return markedSource.toString();
 	}
 
-	// Method to build the final prompt string
+	/**
+	 * Builds the final prompt string. The parts are written into one buffer
+	 * of the exact size, and the markers are inserted into the source while
+	 * it is written, so the source is copied once.
+	 */
 	public String buildPrompt() {
-		StringBuilder promptBuilder = new StringBuilder();
+		StringBuilder promptBuilder = new StringBuilder(length());
+		appendTo(promptBuilder);
+		return promptBuilder.toString();
+	}
 
-		if (context != null && !context.isEmpty()) {
-			promptBuilder.append(context).append(PARAGRAPH);
+	private void appendTo(StringBuilder out) {
+		if (isNotEmpty(context)) {
+			out.append(context).append(PARAGRAPH);
 		}
-		if (instruction != null && !instruction.isEmpty()) {
-			promptBuilder.append("# Instruction:\n").append(instruction).append(PARAGRAPH);
+		if (isNotEmpty(instruction)) {
+			out.append("# Instruction:\n").append(instruction).append(PARAGRAPH);
 		}
-		if (hint != null && !hint.isEmpty()) {
-			promptBuilder.append("# Hint\n").append(hint).append(PARAGRAPH);
+		if (isNotEmpty(hint)) {
+			out.append("# Hint\n").append(hint).append(PARAGRAPH);
 		}
-		if (source != null && !source.isEmpty()) {
-			promptBuilder.append("# Source\n").append("```" + sourceType + "\n" + source + "\n```").append(PARAGRAPH);
-			promptBuilder.append(markerInstraction()).append(PARAGRAPH);
+		if (isNotEmpty(source)) {
+			out.append("# Source\n").append("```").append(sourceType).append("\n");
+			appendSource(out);
+			out.append("\n```").append(PARAGRAPH);
+			out.append(MARKER_INSTRUCTION).append(PARAGRAPH);
 		}
-		if (examples != null && !examples.isEmpty()) {
-			promptBuilder.append("# Examples\n").append(examples).append(PARAGRAPH);
+		if (isNotEmpty(examples)) {
+			out.append("# Examples\n").append(examples).append(PARAGRAPH);
 		}
-		if (input != null && !input.isEmpty()) {
-			promptBuilder.append("# Input\n").append(input).append("\n");
+		if (isNotEmpty(input)) {
+			out.append("# Input\n").append(input).append("\n");
 		}
+	}
 
-		return promptBuilder.toString();
+	private int length() {
+		int length = 0;
+		if (isNotEmpty(context)) {
+			length += context.length() + PARAGRAPH.length();
+		}
+		if (isNotEmpty(instruction)) {
+			length += "# Instruction:\n".length() + instruction.length() + PARAGRAPH.length();
+		}
+		if (isNotEmpty(hint)) {
+			length += "# Hint\n".length() + hint.length() + PARAGRAPH.length();
+		}
+		if (isNotEmpty(source)) {
+			length += "# Source\n```".length() + sourceType.length() + 1 + source.length() + markersLength()
+					+ "\n```".length() + PARAGRAPH.length() + MARKER_INSTRUCTION.length() + PARAGRAPH.length();
+		}
+		if (isNotEmpty(examples)) {
+			length += "# Examples\n".length() + examples.length() + PARAGRAPH.length();
+		}
+		if (isNotEmpty(input)) {
+			length += "# Input\n".length() + input.length() + 1;
+		}
+		return length;
+	}
+
+	private void appendSource(StringBuilder out) {
+		int copied = 0;
+		for (int i = 0; i < markers.length; i++) {
+			out.append(source, copied, markerPositions[i]).append(markers[i].toString());
+			copied = markerPositions[i];
+		}
+		out.append(source, copied, source.length());
+	}
+
+	private int markersLength() {
+		int length = 0;
+		for (Marker marker : markers) {
+			length += marker.length();
+		}
+		return length;
+	}
+
+	private static boolean isNotEmpty(String value) {
+		return value != null && !value.isEmpty();
 	}
 
-	private String markerInstraction() {
+	private static String markerInstraction() {
 		StringBuilder markerInstraction = new StringBuilder(
 				"In the source can be used following special markers:" + PARAGRAPH);
 		Marker[] values = Marker.values();
@@ -97,6 +164,8 @@ public class Prompt {
 		private String hint;
 		private String source;
 		private String sourceType = "";
+		private int[] markerPositions = new int[0];
+		private Marker[] markers = new Marker[0];
 
 		public Builder() {
 		}
@@ -130,19 +199,20 @@ public class Prompt {
 		public Builder source(String source, String type, int caretPosition, int selectionStart, int selectionEnd) {
 			sourceType = type;
 
-			StringBuilder textWithCursor = new StringBuilder(source);
+			// The markers are inserted when the prompt is rendered, the source is not copied.
 			if (selectionStart == selectionEnd) {
 				selectionStart = -1;
 			}
 
-			if (selectionStart > 0) {
-				textWithCursor.insert(selectionStart, Marker.SELECTION_START);
-				textWithCursor.insert(selectionEnd + Marker.SELECTION_START.length(), Marker.SELECTION_END);
+			if (selectionStart >= 0) {
+				markerPositions = new int[] { selectionStart, selectionEnd };
+				markers = new Marker[] { Marker.SELECTION_START, Marker.SELECTION_END };
 			} else {
-				textWithCursor.insert(caretPosition, Marker.CURSOR);
+				markerPositions = new int[] { caretPosition };
+				markers = new Marker[] { Marker.CURSOR };
 			}
 
-			this.source = textWithCursor.toString();
+			this.source = source;
 			return this;
 		}
 
@@ -0,0 +1,74 @@
+package com.ganteater.ai;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.openai.models.responses.Response;
+import com.openai.models.responses.ResponseUsage;
+
+/**
+ * Latency and token usage of one prompt call. A call can consist of several
+ * requests, e.g. the follow-up requests after function calls; the token
+ * counts are summed and the time to first byte is taken from the first
+ * request.
+ */
+public class PromptMetrics {
+
+	private final long start = System.currentTimeMillis();
+	private long wallTime;
+	private long timeToFirstByte = -1;
+	private long inputTokens;
+	private long cachedTokens;
+	private long outputTokens;
+	private long reasoningTokens;
+	private long toolCalls;
+	private long retries;
+
+	public synchronized void firstByte() {
+		if (timeToFirstByte < 0) {
+			timeToFirstByte = System.currentTimeMillis() - start;
+		}
+	}
+
+	public synchronized void retry() {
+		retries++;
+	}
+
+	public synchronized void toolCall() {
+		toolCalls++;
+	}
+
+	public synchronized void usage(Response response) {
+		if (response.usage().isPresent()) {
+			ResponseUsage usage = response.usage().get();
+			inputTokens += usage.inputTokens();
+			cachedTokens += usage.inputTokensDetails().cachedTokens();
+			outputTokens += usage.outputTokens();
+			reasoningTokens += usage.outputTokensDetails().reasoningTokens();
+		}
+	}
+
+	public synchronized PromptMetrics finish() {
+		wallTime = System.currentTimeMillis() - start;
+		return this;
+	}
+
+	public synchronized Map<String, Long> values() {
+		Map<String, Long> values = new LinkedHashMap<>();
+		values.put("wallTime", wallTime);
+		values.put("timeToFirstByte", Math.max(timeToFirstByte, 0));
+		values.put("inputTokens", inputTokens);
+		values.put("cachedTokens", cachedTokens);
+		values.put("outputTokens", outputTokens);
+		values.put("reasoningTokens", reasoningTokens);
+		values.put("toolCalls", toolCalls);
+		values.put("retries", retries);
+		return values;
+	}
+
+	@Override
+	public String toString() {
+		return values().toString();
+	}
+
+}
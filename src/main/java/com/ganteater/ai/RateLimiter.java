@@ -0,0 +1,255 @@
+package com.ganteater.ai;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang.math.NumberUtils;
+
+import com.openai.core.http.Headers;
+import com.openai.core.http.HttpResponseFor;
+import com.openai.errors.InternalServerException;
+import com.openai.errors.OpenAIIoException;
+import com.openai.errors.RateLimitException;
+import com.openai.models.responses.Response;
+import com.openai.models.responses.ResponseCreateParams;
+
+/**
+ * Client-side pacing of the requests sent with one API key. The requests per
+ * minute and tokens per minute are limited by token buckets, configured by
+ * the limits or learned from the <code>x-ratelimit-*</code> response headers.
+ * A throttled request is retried with jittered exponential backoff.
+ */
+public class RateLimiter {
+
+	private static final long MINUTE = 60_000L;
+	private static final long BASE_BACKOFF = 1_000L;
+	private static final long MAX_BACKOFF = MINUTE;
+
+	private final Bucket requests = new Bucket();
+	private final Bucket tokens = new Bucket();
+
+	private int maxRetries = 5;
+	private long pausedUntil;
+
+	private long throttledCount;
+	private long waitTime;
+
+	/**
+	 * Configures the limits, 0 - not configured. If the limit is already
+	 * configured by another user of the API key, the lower one is kept.
+	 */
+	public synchronized void setLimits(long requestsPerMinute, long tokensPerMinute) {
+		if (requestsPerMinute > 0) {
+			requests.configure(requestsPerMinute);
+		}
+		if (tokensPerMinute > 0) {
+			tokens.configure(tokensPerMinute);
+		}
+		notifyAll();
+	}
+
+	public synchronized void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * Waits until the request can be sent according to the limits, calls it and
+	 * retries it if the server responds with the rate limit error, a server
+	 * error or the connection fails. The client must not retry the request
+	 * itself, see {@link ClientRegistry#getRateLimitedClient}.
+	 *
+	 * @param tokenCount the estimated number of tokens of the request.
+	 * @param call       sends the request.
+	 */
+	public <T> T execute(long tokenCount, Supplier<HttpResponseFor<T>> call) {
+		return execute(tokenCount, call, null);
+	}
+
+	/**
+	 * Same as {@link #execute(long, Supplier)}, the time to the response headers
+	 * and the retries are recorded to the metrics.
+	 *
+	 * @param metrics the metrics of the prompt call, can be <code>null</code>.
+	 */
+	public <T> T execute(long tokenCount, Supplier<HttpResponseFor<T>> call, PromptMetrics metrics) {
+		for (int attempt = 0;; attempt++) {
+			acquire(tokenCount);
+			try {
+				HttpResponseFor<T> response = call.get();
+				if (metrics != null) {
+					metrics.firstByte();
+				}
+				update(response.headers());
+				return response.parse();
+
+			} catch (RateLimitException e) {
+				update(e.headers());
+				if (attempt >= maxRetries) {
+					throw e;
+				}
+				if (metrics != null) {
+					metrics.retry();
+				}
+				pause(retryAfter(e.headers(), attempt));
+
+			} catch (InternalServerException | OpenAIIoException e) {
+				if (attempt >= maxRetries) {
+					throw e;
+				}
+				if (metrics != null) {
+					metrics.retry();
+				}
+				// A server or connection error does not pause the other requests of the key.
+				sleep(retryAfter(e instanceof InternalServerException ? ((InternalServerException) e).headers()
+						: Headers.builder().build(), attempt));
+			}
+		}
+	}
+
+	/**
+	 * Corrects the token bucket by the actual token usage of the response.
+	 */
+	public void complete(long estimatedTokens, Response response) {
+		response.usage().ifPresent(usage -> {
+			synchronized (this) {
+				tokens.take(usage.totalTokens() - estimatedTokens);
+			}
+		});
+	}
+
+	/**
+	 * Estimates the input tokens of the request the same way as the input
+	 * token budget does.
+	 */
+	public static long estimateTokens(ResponseCreateParams params) {
+		return TokenEstimator.estimate(params);
+	}
+
+	private synchronized void acquire(long tokenCount) {
+		long start = System.currentTimeMillis();
+		try {
+			while (true) {
+				long now = System.currentTimeMillis();
+				long wait = Math.max(pausedUntil - now,
+						Math.max(requests.waitTime(1, now), tokens.waitTime(tokenCount, now)));
+				if (wait <= 0) {
+					requests.take(1);
+					tokens.take(tokenCount);
+					break;
+				}
+				wait(wait);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("The request waiting for the rate limit is interrupted.", e);
+		} finally {
+			waitTime += System.currentTimeMillis() - start;
+		}
+	}
+
+	private static void sleep(long delay) {
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("The request waiting for the retry is interrupted.", e);
+		}
+	}
+
+	private synchronized void pause(long delay) {
+		throttledCount++;
+		pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + delay);
+	}
+
+	private synchronized void update(Headers headers) {
+		long now = System.currentTimeMillis();
+		requests.update(header(headers, "x-ratelimit-limit-requests"),
+				header(headers, "x-ratelimit-remaining-requests"), now);
+		tokens.update(header(headers, "x-ratelimit-limit-tokens"), header(headers, "x-ratelimit-remaining-tokens"),
+				now);
+		notifyAll();
+	}
+
+	private static long retryAfter(Headers headers, int attempt) {
+		long retryAfter = header(headers, "retry-after-ms");
+		if (retryAfter < 0) {
+			long seconds = header(headers, "retry-after");
+			retryAfter = seconds < 0 ? -1 : seconds * 1000;
+		}
+		if (retryAfter < 0) {
+			long backoff = Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(attempt, 16));
+			retryAfter = ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1);
+		}
+		return retryAfter;
+	}
+
+	private static long header(Headers headers, String name) {
+		List<String> values = headers.values(name);
+		return values.isEmpty() ? -1 : NumberUtils.toLong(values.get(0), -1);
+	}
+
+	public synchronized long getThrottledCount() {
+		return throttledCount;
+	}
+
+	public synchronized long getWaitTime() {
+		return waitTime;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("Rate limit: %1$d rpm, %2$d tpm, throttled: %3$d, waited: %4$d ms.", requests.limit,
+				tokens.limit, throttledCount, waitTime);
+	}
+
+	private static class Bucket {
+		private long configured;
+		private long limit;
+		private double available;
+		private long updated = System.currentTimeMillis();
+
+		void configure(long limit) {
+			configured = configured > 0 ? Math.min(configured, limit) : limit;
+			setLimit(this.limit > 0 ? Math.min(this.limit, configured) : configured);
+		}
+
+		void update(long serverLimit, long remaining, long now) {
+			if (serverLimit > 0) {
+				setLimit(configured > 0 ? Math.min(configured, serverLimit) : serverLimit);
+			}
+			if (remaining >= 0 && limit > 0) {
+				refill(now);
+				available = Math.min(available, remaining);
+			}
+		}
+
+		long waitTime(long amount, long now) {
+			if (limit <= 0) {
+				return 0;
+			}
+			refill(now);
+			double required = Math.min(amount, limit);
+			return available >= required ? 0 : (long) Math.ceil((required - available) * MINUTE / limit);
+		}
+
+		void take(long amount) {
+			if (limit > 0) {
+				available -= amount;
+			}
+		}
+
+		private void setLimit(long limit) {
+			if (this.limit <= 0) {
+				available = limit;
+			}
+			this.limit = limit;
+		}
+
+		private void refill(long now) {
+			available = Math.min(limit, available + (now - updated) * (double) limit / MINUTE);
+			updated = now;
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+package com.ganteater.ai;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.openai.core.ObjectMappers;
+import com.openai.models.responses.Response;
+import com.openai.models.responses.ResponseCreateParams;
+import com.openai.models.responses.ResponseStatus;
+
+/**
+ * On-disk cache of model responses. The key is a SHA-256 hash of the request
+ * body: the model, the input items and the tool definitions. Entries expire
+ * after the time to live, and the least recently used entries are removed
+ * when the directory grows over the maximum size. Only completed responses
+ * are stored.
+ */
+public class ResponseCache {
+
+	private static final String FILE_EXTENSION = ".json";
+	private static final String CREATED = "created";
+	private static final String RESPONSE = "response";
+
+	private final JsonMapper mapper = ObjectMappers.jsonMapper();
+
+	private final File directory;
+	private final long timeToLive;
+	private final long maxSize;
+
+	private final AtomicLong size = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param directory  the cache directory, created if it does not exist.
+	 * @param timeToLive the entry lifetime in milliseconds, 0 - no expiration.
+	 * @param maxSize    the maximum size of the directory in bytes, 0 - no limit.
+	 */
+	public ResponseCache(File directory, long timeToLive, long maxSize) throws IOException {
+		this.directory = directory;
+		this.timeToLive = timeToLive;
+		this.maxSize = maxSize;
+
+		FileUtils.forceMkdir(directory);
+		for (File file : entries()) {
+			size.addAndGet(file.length());
+		}
+	}
+
+	public String key(ResponseCreateParams params) {
+		try {
+			byte[] body = mapper.writeValueAsBytes(params._body());
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+			StringBuilder key = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return key.toString();
+
+		} catch (JsonProcessingException | NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Request key calculation failed.", e);
+		}
+	}
+
+	public Response get(String key) {
+		File file = file(key);
+		Response response = null;
+		if (file.isFile()) {
+			try {
+				JsonNode entry = mapper.readTree(file);
+				long created = entry.path(CREATED).asLong();
+				if (timeToLive > 0 && System.currentTimeMillis() - created > timeToLive) {
+					delete(file);
+				} else {
+					response = mapper.treeToValue(entry.get(RESPONSE), Response.class);
+					file.setLastModified(System.currentTimeMillis());
+				}
+			} catch (IOException e) {
+				delete(file);
+			}
+		}
+
+		if (response == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return response;
+	}
+
+	/**
+	 * Stores the completed response. Concurrent writes of the same key use
+	 * separate temporary files, the last renamed one is kept.
+	 *
+	 * @throws IOException if the entry is not written, the cache is not
+	 *                     changed then.
+	 */
+	public void put(String key, Response response) throws IOException {
+		if (!response.status().map(ResponseStatus.COMPLETED::equals).orElse(false)) {
+			return;
+		}
+
+		File file = file(key);
+		ObjectNode entry = mapper.createObjectNode();
+		entry.put(CREATED, System.currentTimeMillis());
+		entry.set(RESPONSE, mapper.valueToTree(response));
+
+		File tmpFile = File.createTempFile(key, ".tmp", directory);
+		try {
+			long oldLength = file.length();
+			mapper.writeValue(tmpFile, entry);
+			long length = tmpFile.length();
+			if (tmpFile.renameTo(file) || (file.delete() && tmpFile.renameTo(file))) {
+				size.addAndGet(length - oldLength);
+			}
+		} finally {
+			FileUtils.deleteQuietly(tmpFile);
+		}
+
+		if (maxSize > 0 && size.get() > maxSize) {
+			evict();
+		}
+	}
+
+	private synchronized void evict() {
+		File[] files = entries();
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File file : files) {
+			if (size.get() <= maxSize) {
+				break;
+			}
+			delete(file);
+		}
+	}
+
+	private void delete(File file) {
+		long length = file.length();
+		if (file.delete()) {
+			size.addAndGet(-length);
+		}
+	}
+
+	private File[] entries() {
+		File[] files = directory.listFiles((dir, name) -> StringUtils.endsWith(name, FILE_EXTENSION));
+		return files == null ? new File[0] : files;
+	}
+
+	private File file(String key) {
+		return new File(directory, key + FILE_EXTENSION);
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getSize() {
+		return size.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Response cache: %1$s, hits: %2$d, misses: %3$d, size: %4$d bytes.", directory,
+				getHits(), getMisses(), getSize());
+	}
+
+}
@@ -0,0 +1,153 @@
+package com.ganteater.ai;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact edit format of the model output: search/replace blocks. Each block
+ * replaces a unique fragment of the source, so the output size depends on the
+ * size of the change, not on the size of the source. The markers in the
+ * search part are ignored, the markers in the replace part are kept.
+ */
+public final class SearchReplacePatch {
+
+	public static final String INSTRUCTION = "Return only the changes as search/replace blocks, "
+			+ "do not return the whole source:\n\n"
+			+ "```\n"
+			+ "<<<<<<< SEARCH\n"
+			+ "exact lines of the source to replace\n"
+			+ "=======\n"
+			+ "new lines\n"
+			+ ">>>>>>> REPLACE\n"
+			+ "```\n\n"
+			+ "- The SEARCH part must match the source lines exactly, including the indentation, and must be unique "
+			+ "in the source: include enough lines to identify the place.\n"
+			+ "- Use one block for each change, in the order of the source.\n"
+			+ "- To insert new lines, put a neighbour line in SEARCH and repeat it in REPLACE with the new lines.\n"
+			+ "- Mark the changed code in REPLACE with the " + Marker.CURSOR + " or " + Marker.SELECTION_START + "..."
+			+ Marker.SELECTION_END + " markers.\n"
+			+ "- If the source is empty or must be rewritten completely, return the whole source as it was sent, "
+			+ "the recipe or the fragment, in the xml code block instead.";
+
+	private static final String SEARCH = "<<<<<<< SEARCH";
+	private static final String DIVIDER = "=======";
+	private static final String REPLACE = ">>>>>>> REPLACE";
+
+	private SearchReplacePatch() {
+	}
+
+	public static boolean hasBlocks(String response) {
+		return response.contains(SEARCH) && response.contains(REPLACE);
+	}
+
+	/**
+	 * Applies the blocks of the response to the source.
+	 *
+	 * @return the patched source, or <code>null</code> if the response does not
+	 *         contain blocks or a search part is not found once in the source.
+	 */
+	public static String apply(String source, String response) {
+		List<String[]> blocks = parse(response);
+		if (blocks.isEmpty()) {
+			return null;
+		}
+
+		String text = source;
+		for (String[] block : blocks) {
+			text = replace(text, Marker.extractAll(block[0]).getText(), block[1]);
+			if (text == null) {
+				return null;
+			}
+		}
+		return text;
+	}
+
+	private static List<String[]> parse(String response) {
+		List<String[]> blocks = new ArrayList<>();
+		String[] lines = response.split("\n", -1);
+		StringBuilder search = null;
+		StringBuilder replace = null;
+		for (String line : lines) {
+			String marker = line.trim();
+			if (SEARCH.equals(marker)) {
+				search = new StringBuilder();
+				replace = null;
+			} else if (DIVIDER.equals(marker) && search != null && replace == null) {
+				replace = new StringBuilder();
+			} else if (REPLACE.equals(marker) && replace != null) {
+				blocks.add(new String[] { search.toString(), replace.toString() });
+				search = null;
+				replace = null;
+			} else if (replace != null) {
+				replace.append(line).append('\n');
+			} else if (search != null) {
+				search.append(line).append('\n');
+			}
+		}
+		return blocks;
+	}
+
+	private static String replace(String text, String search, String replacement) {
+		if (search.isEmpty()) {
+			return text.isEmpty() ? replacement : null;
+		}
+
+		int index = text.indexOf(search);
+		if (index >= 0) {
+			if (text.indexOf(search, index + 1) >= 0) {
+				return null;
+			}
+			return text.substring(0, index) + replacement + text.substring(index + search.length());
+		}
+
+		return replaceLines(text, search, replacement);
+	}
+
+	/**
+	 * Finds the search lines ignoring the leading and trailing white spaces,
+	 * the match must be unique.
+	 */
+	private static String replaceLines(String text, String search, String replacement) {
+		String[] searchLines = search.split("\n");
+		List<Integer> lineStarts = new ArrayList<>();
+		List<String> lines = new ArrayList<>();
+		int start = 0;
+		while (start <= text.length()) {
+			int end = text.indexOf('\n', start);
+			lineStarts.add(start);
+			lines.add(text.substring(start, end < 0 ? text.length() : end));
+			if (end < 0) {
+				break;
+			}
+			start = end + 1;
+		}
+
+		int found = -1;
+		for (int i = 0; i + searchLines.length <= lines.size(); i++) {
+			boolean matches = true;
+			for (int j = 0; j < searchLines.length && matches; j++) {
+				matches = lines.get(i + j).trim().equals(searchLines[j].trim());
+			}
+			if (matches) {
+				if (found >= 0) {
+					return null;
+				}
+				found = i;
+			}
+		}
+		if (found < 0) {
+			return null;
+		}
+
+		int from = lineStarts.get(found);
+		int lastLine = found + searchLines.length - 1;
+		int to = lineStarts.get(lastLine) + lines.get(lastLine).length();
+		if (to < text.length()) {
+			to++;
+		} else if (replacement.endsWith("\n")) {
+			replacement = replacement.substring(0, replacement.length() - 1);
+		}
+		return text.substring(0, from) + replacement + text.substring(to);
+	}
+
+}
@@ -0,0 +1,185 @@
+package com.ganteater.ai;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs at most one task per key at a time, e.g. one request per editor. A
+ * submitted task is started after the debounce delay, so a repeated
+ * submission of the same key replaces it before it is sent. A new submission
+ * also cancels the running task of the key, and is started when the
+ * cancelled task has finished. The number of the waiting tasks is limited.
+ */
+public class SingleFlightExecutor<K> {
+
+	private final ExecutorService workers;
+	private final ScheduledExecutorService timer;
+	private final int maxQueueSize;
+	private final long debounceMillis;
+
+	private final Map<K, Pending> pending = new HashMap<>();
+	private final Map<K, Flight> running = new HashMap<>();
+
+	public SingleFlightExecutor(String name, int maxQueueSize, long debounceMillis) {
+		this.maxQueueSize = maxQueueSize;
+		this.debounceMillis = debounceMillis;
+
+		ThreadFactory threadFactory = runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+		workers = Executors.newCachedThreadPool(threadFactory);
+		timer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+	}
+
+	/**
+	 * Submits the task of the key, replacing the waiting one and cancelling the
+	 * running one.
+	 *
+	 * @param canceller aborts the task when it is running, e.g. closes its
+	 *                  connection. The task thread is interrupted as well.
+	 * @return the future completed when the task finishes, or cancelled when
+	 *         the task is replaced or cancelled.
+	 * @throws RejectedExecutionException if the queue is full.
+	 */
+	public synchronized CompletableFuture<Void> submit(K key, Runnable task, Runnable canceller) {
+		if (!pending.containsKey(key) && pending.size() >= maxQueueSize) {
+			throw new RejectedExecutionException(
+					"The request queue is full: " + pending.size() + " requests are waiting.");
+		}
+
+		Pending previous = pending.remove(key);
+		if (previous != null) {
+			previous.result.cancel(false);
+		}
+		Flight flight = running.get(key);
+		if (flight != null) {
+			flight.cancel();
+		}
+
+		Pending next = new Pending(task, canceller);
+		pending.put(key, next);
+		timer.schedule(() -> start(key, next), debounceMillis, TimeUnit.MILLISECONDS);
+		return next.result;
+	}
+
+	/**
+	 * Cancels the waiting and the running task of the key.
+	 */
+	public synchronized void cancel(K key) {
+		Pending previous = pending.remove(key);
+		if (previous != null) {
+			previous.result.cancel(false);
+		}
+		Flight flight = running.get(key);
+		if (flight != null) {
+			flight.cancel();
+		}
+	}
+
+	/**
+	 * Returns the number of the submitted tasks which are not started yet.
+	 */
+	public synchronized int getQueueDepth() {
+		return pending.size();
+	}
+
+	public synchronized boolean isRunning(K key) {
+		return running.containsKey(key);
+	}
+
+	private synchronized void start(K key, Pending task) {
+		if (pending.get(key) != task || running.containsKey(key)) {
+			// Replaced, cancelled, or started when the previous task finishes.
+			return;
+		}
+		pending.remove(key);
+
+		Flight flight = new Flight(task);
+		running.put(key, flight);
+		workers.execute(() -> run(key, flight));
+	}
+
+	private void run(K key, Flight flight) {
+		synchronized (this) {
+			flight.thread = Thread.currentThread();
+		}
+		Throwable failure = null;
+		try {
+			if (!flight.cancelled) {
+				flight.task.runnable.run();
+			}
+		} catch (RuntimeException | Error e) {
+			failure = e;
+		} finally {
+			finished(key, flight);
+		}
+
+		// The result is completed when the key is free for the next task.
+		CompletableFuture<Void> result = flight.task.result;
+		if (flight.cancelled) {
+			result.cancel(false);
+		} else if (failure != null) {
+			result.completeExceptionally(failure);
+		} else {
+			result.complete(null);
+		}
+	}
+
+	private synchronized void finished(K key, Flight flight) {
+		flight.thread = null;
+		// The interruption of the cancelled task must not affect the next one.
+		Thread.interrupted();
+
+		running.remove(key, flight);
+		Pending next = pending.get(key);
+		if (next != null && System.nanoTime() - next.startTime >= 0) {
+			start(key, next);
+		}
+	}
+
+	private class Pending {
+		private final Runnable runnable;
+		private final Runnable canceller;
+		private final long startTime;
+		private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+		Pending(Runnable runnable, Runnable canceller) {
+			this.runnable = runnable;
+			this.canceller = canceller;
+			this.startTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+		}
+	}
+
+	private class Flight {
+		private final Pending task;
+		private volatile boolean cancelled;
+		private Thread thread;
+
+		Flight(Pending task) {
+			this.task = task;
+		}
+
+		void cancel() {
+			if (cancelled) {
+				return;
+			}
+			cancelled = true;
+			if (task.canceller != null) {
+				task.canceller.run();
+			}
+			if (thread != null) {
+				thread.interrupt();
+			}
+		}
+	}
+
+}
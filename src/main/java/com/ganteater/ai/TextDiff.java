@@ -0,0 +1,198 @@
+package com.ganteater.ai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Line based difference of two texts (Myers algorithm). The result is a list
+ * of edits which transforms the old text to the new one, so only the changed
+ * lines are replaced in the document. If the texts differ in too many lines,
+ * the changed middle part is replaced as one edit.
+ */
+public final class TextDiff {
+
+	private static final int MAX_DIFFERENCES = 1000;
+
+	private TextDiff() {
+	}
+
+	/**
+	 * Replacement of the text range [offset, offset + length) of the old text.
+	 */
+	public static class Edit {
+		private final int offset;
+		private final int length;
+		private final String text;
+
+		Edit(int offset, int length, String text) {
+			this.offset = offset;
+			this.length = length;
+			this.text = text;
+		}
+
+		public int getOffset() {
+			return offset;
+		}
+
+		public int getLength() {
+			return length;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		@Override
+		public String toString() {
+			return "[" + offset + ", " + length + ", \"" + text + "\"]";
+		}
+	}
+
+	/**
+	 * Returns the edits in the ascending offset order. The offsets refer to the
+	 * old text, so the edits should be applied from the last to the first.
+	 */
+	public static List<Edit> diff(String oldText, String newText) {
+		List<Edit> edits = new ArrayList<>();
+		if (oldText.equals(newText)) {
+			return edits;
+		}
+
+		String[] a = lines(oldText);
+		String[] b = lines(newText);
+
+		int prefix = 0;
+		int offset = 0;
+		while (prefix < a.length && prefix < b.length && a[prefix].equals(b[prefix])) {
+			offset += a[prefix].length();
+			prefix++;
+		}
+		int suffix = 0;
+		while (suffix < a.length - prefix && suffix < b.length - prefix
+				&& a[a.length - 1 - suffix].equals(b[b.length - 1 - suffix])) {
+			suffix++;
+		}
+
+		String[] oldLines = Arrays.copyOfRange(a, prefix, a.length - suffix);
+		String[] newLines = Arrays.copyOfRange(b, prefix, b.length - suffix);
+
+		boolean[] deleted = new boolean[oldLines.length];
+		boolean[] inserted = new boolean[newLines.length];
+		if (!compare(oldLines, newLines, deleted, inserted)) {
+			Arrays.fill(deleted, true);
+			Arrays.fill(inserted, true);
+		}
+
+		int i = 0;
+		int j = 0;
+		while (i < oldLines.length || j < newLines.length) {
+			if (i < oldLines.length && j < newLines.length && !deleted[i] && !inserted[j]) {
+				offset += oldLines[i].length();
+				i++;
+				j++;
+				continue;
+			}
+
+			int length = 0;
+			StringBuilder text = new StringBuilder();
+			while ((i < oldLines.length && deleted[i]) || (j < newLines.length && inserted[j])) {
+				if (i < oldLines.length && deleted[i]) {
+					length += oldLines[i++].length();
+				} else {
+					text.append(newLines[j++]);
+				}
+			}
+			edits.add(new Edit(offset, length, text.toString()));
+			offset += length;
+		}
+		return edits;
+	}
+
+	/**
+	 * Marks the deleted and inserted lines of the shortest edit script.
+	 *
+	 * @return <code>false</code> if the number of differences exceeds the
+	 *         limit.
+	 */
+	private static boolean compare(String[] a, String[] b, boolean[] deleted, boolean[] inserted) {
+		int n = a.length;
+		int m = b.length;
+		int max = Math.min(n + m, MAX_DIFFERENCES);
+		int center = max + 1;
+		int[] v = new int[2 * max + 3];
+		List<int[]> trace = new ArrayList<>();
+
+		for (int d = 0; d <= max; d++) {
+			for (int k = -d; k <= d; k += 2) {
+				int x;
+				if (k == -d || (k != d && v[center + k - 1] < v[center + k + 1])) {
+					x = v[center + k + 1];
+				} else {
+					x = v[center + k - 1] + 1;
+				}
+				int y = x - k;
+				while (x < n && y < m && a[x].equals(b[y])) {
+					x++;
+					y++;
+				}
+				v[center + k] = x;
+
+				if (x >= n && y >= m) {
+					backtrack(trace, d, n, m, deleted, inserted);
+					return true;
+				}
+			}
+			trace.add(Arrays.copyOfRange(v, center - d, center + d + 1));
+		}
+		return false;
+	}
+
+	private static void backtrack(List<int[]> trace, int differences, int n, int m, boolean[] deleted,
+			boolean[] inserted) {
+		int x = n;
+		int y = m;
+		for (int d = differences; d > 0; d--) {
+			int[] previous = trace.get(d - 1);
+			int k = x - y;
+			int previousK;
+			if (k == -d || (k != d && value(previous, d - 1, k - 1) < value(previous, d - 1, k + 1))) {
+				previousK = k + 1;
+			} else {
+				previousK = k - 1;
+			}
+			int previousX = value(previous, d - 1, previousK);
+			int previousY = previousX - previousK;
+			while (x > previousX && y > previousY) {
+				x--;
+				y--;
+			}
+			if (x == previousX) {
+				inserted[previousY] = true;
+			} else {
+				deleted[previousX] = true;
+			}
+			x = previousX;
+			y = previousY;
+		}
+	}
+
+	private static int value(int[] v, int d, int k) {
+		return v[k + d];
+	}
+
+	private static String[] lines(String text) {
+		List<String> lines = new ArrayList<>();
+		int start = 0;
+		int end;
+		while ((end = text.indexOf('\n', start)) >= 0) {
+			lines.add(text.substring(start, end + 1));
+			start = end + 1;
+		}
+		if (start < text.length()) {
+			lines.add(text.substring(start));
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.ganteater.ai;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Parses the recipe time values: a number with an optional suffix <code>Y</code>,
+ * <code>M</code>, <code>w</code>, <code>d</code>, <code>h</code>, <code>m</code>,
+ * <code>s</code>. A value without suffix is in milliseconds.
+ */
+public final class Time {
+
+	private static final long SECOND = 1000L;
+	private static final long MINUTE = 60 * SECOND;
+	private static final long HOUR = 60 * MINUTE;
+	private static final long DAY = 24 * HOUR;
+
+	private Time() {
+	}
+
+	public static long parse(String value, long defaultValue) {
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+
+		String time = value.trim();
+		char suffix = time.charAt(time.length() - 1);
+		long unit;
+		switch (suffix) {
+		case 'Y':
+			unit = 365 * DAY;
+			break;
+		case 'M':
+			unit = 30 * DAY;
+			break;
+		case 'w':
+			unit = 7 * DAY;
+			break;
+		case 'd':
+			unit = DAY;
+			break;
+		case 'h':
+			unit = HOUR;
+			break;
+		case 'm':
+			unit = MINUTE;
+			break;
+		case 's':
+			unit = SECOND;
+			break;
+		default:
+			return Long.parseLong(time);
+		}
+
+		return Long.parseLong(time.substring(0, time.length() - 1).trim()) * unit;
+	}
+
+}
@@ -0,0 +1,128 @@
+package com.ganteater.ai;
+
+import java.util.List;
+
+import com.openai.models.responses.ResponseCreateParams;
+import com.openai.models.responses.ResponseCreateParams.Input;
+import com.openai.models.responses.ResponseInputContent;
+import com.openai.models.responses.ResponseInputItem;
+import com.openai.models.responses.ResponseInputItem.Message;
+import com.openai.models.responses.Tool;
+
+/**
+ * Local estimation of the token count, without a tokenizer vocabulary. The
+ * text is split like the byte pair encoders pre-split it: words with the
+ * leading space, digit groups, punctuation and white space runs. Each piece is
+ * counted by the typical length of its tokens.
+ */
+public final class TokenEstimator {
+
+	/**
+	 * The tokens added by the message structure: the role and the delimiters.
+	 */
+	public static final int MESSAGE_OVERHEAD = 4;
+
+	private static final int WORD_TOKEN_LENGTH = 6;
+	private static final int NON_LATIN_TOKEN_LENGTH = 2;
+	private static final int DIGIT_TOKEN_LENGTH = 3;
+	private static final int PUNCTUATION_TOKEN_LENGTH = 2;
+	private static final int CHARS_PER_TOKEN = 4;
+
+	private TokenEstimator() {
+	}
+
+	public static long estimate(CharSequence text) {
+		if (text == null) {
+			return 0;
+		}
+
+		long tokens = 0;
+		int length = text.length();
+		int i = 0;
+		while (i < length) {
+			char c = text.charAt(i);
+			int start = i;
+			if (Character.isLetter(c)) {
+				boolean latin = c < 0x250;
+				while (i < length && Character.isLetter(text.charAt(i))) {
+					latin &= text.charAt(i) < 0x250;
+					i++;
+				}
+				tokens += tokens(i - start, latin ? WORD_TOKEN_LENGTH : NON_LATIN_TOKEN_LENGTH);
+			} else if (Character.isDigit(c)) {
+				while (i < length && Character.isDigit(text.charAt(i))) {
+					i++;
+				}
+				tokens += tokens(i - start, DIGIT_TOKEN_LENGTH);
+			} else if (Character.isWhitespace(c)) {
+				while (i < length && Character.isWhitespace(text.charAt(i))) {
+					i++;
+				}
+				// A single space is a part of the next word.
+				if (i - start > 1 || c != ' ' || i == length || !Character.isLetterOrDigit(text.charAt(i))) {
+					tokens++;
+				}
+			} else {
+				while (i < length && !Character.isLetterOrDigit(text.charAt(i))
+						&& !Character.isWhitespace(text.charAt(i))) {
+					i++;
+				}
+				tokens += tokens(i - start, PUNCTUATION_TOKEN_LENGTH);
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Estimates the input item: the text content of a message, or the JSON
+	 * form of the other items.
+	 */
+	public static long estimate(ResponseInputItem item) {
+		if (item.isMessage()) {
+			Message message = item.asMessage();
+			long tokens = MESSAGE_OVERHEAD;
+			List<ResponseInputContent> content = message.content();
+			for (ResponseInputContent part : content) {
+				if (part.isInputText()) {
+					tokens += estimate(part.asInputText().text());
+				} else {
+					tokens += estimate(part.toString());
+				}
+			}
+			return tokens;
+		}
+		return MESSAGE_OVERHEAD + item.toString().length() / CHARS_PER_TOKEN;
+	}
+
+	/**
+	 * Estimates the input of the request: the instructions, the input items
+	 * and the tool definitions.
+	 */
+	public static long estimate(ResponseCreateParams params) {
+		long tokens = 0;
+		if (params.instructions().isPresent()) {
+			tokens += MESSAGE_OVERHEAD + estimate(params.instructions().get());
+		}
+		if (params.input().isPresent()) {
+			Input input = params.input().get();
+			if (input.isText()) {
+				tokens += MESSAGE_OVERHEAD + estimate(input.asText());
+			} else if (input.isResponse()) {
+				for (ResponseInputItem item : input.asResponse()) {
+					tokens += estimate(item);
+				}
+			}
+		}
+		if (params.tools().isPresent()) {
+			for (Tool tool : params.tools().get()) {
+				tokens += tool.toString().length() / CHARS_PER_TOKEN;
+			}
+		}
+		return tokens;
+	}
+
+	private static long tokens(int length, int tokenLength) {
+		return (length + tokenLength - 1) / tokenLength;
+	}
+
+}